@@ -0,0 +1,73 @@
+package org.bzewdu.bench;
+
+import org.bzewdu.stats.DataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of filling a DataSet and of the statistics Compare asks of it.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataSetBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int samples;
+
+    private double[] values;
+    private DataSet full;
+
+    @Setup
+    public void setup() {
+        values = Fixtures.gaussian(samples, 100, 10, 42);
+        full = new DataSet();
+        for (double v : values) {
+            full.add(v);
+        }
+    }
+
+    @Benchmark
+    public DataSet add() {
+        DataSet data = new DataSet();
+        for (double v : values) {
+            data.add(v);
+        }
+        return data;
+    }
+
+    @Benchmark
+    public double addThenStddev() {
+        DataSet data = new DataSet();
+        for (double v : values) {
+            data.add(v);
+        }
+        return data.mean() + data.stddev();
+    }
+
+    // Forces the full recompute path that remove() falls back to
+    @Benchmark
+    public double removeThenStddev() {
+        double last = values[values.length - 1];
+        full.remove(last);
+        full.add(last);
+        return full.stddev();
+    }
+
+    @Benchmark
+    public double[] toDoubleArray() {
+        return full.toDoubleArray();
+    }
+}
@@ -0,0 +1,83 @@
+package org.bzewdu.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+// Writes results trees shaped like the ones our harnesses produce, so
+// the benchmarks parse realistic files rather than toy ones.
+
+public class Fixtures {
+    private Fixtures() {
+    }
+
+    public static double[] gaussian(int n, double mean, double stddev, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = Math.abs(mean + random.nextGaussian() * stddev);
+        }
+        return values;
+    }
+
+    /**
+     * Writes dir/results.name with the given number of scores and
+     * numSubresultFiles subresults.* files, each listing
+     * numSubbenchmarks sub-benchmark scores.
+     */
+    public static File writeResultsDir(File dir, String name, int numScores,
+                                       int numSubresultFiles, int numSubbenchmarks,
+                                       long seed) throws IOException {
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Random random = new Random(seed);
+        StringBuilder higher = new StringBuilder();
+        for (int i = 0; i < numSubbenchmarks; i++) {
+            if (i > 0) higher.append(' ');
+            higher.append("sub").append(i);
+        }
+        Writer out = new FileWriter(new File(dir, "results." + name));
+        try {
+            double[] scores = gaussian(numScores, 1000, 50, seed);
+            out.write("is_workload=0\n");
+            out.write("is_higher_better=1\n");
+            out.write("score=1000.0\n");
+            out.write("scores=");
+            for (int i = 0; i < scores.length; i++) {
+                if (i > 0) out.write(' ');
+                out.write(String.format("%.4f", scores[i]));
+            }
+            out.write('\n');
+            out.write("mean=1000.0\nstdev=50.0\nvar=2500.0\n");
+            out.write("attempts=" + numScores + "\nsuccesses=" + numScores + "\nfailures=0\n");
+            out.write("subresults_higher=" + higher + "\n");
+            out.write("subresults_lower=\n");
+        } finally {
+            out.close();
+        }
+        for (int f = 0; f < numSubresultFiles; f++) {
+            out = new FileWriter(new File(dir, "subresults." + f));
+            try {
+                for (int i = 0; i < numSubbenchmarks; i++) {
+                    out.write("sub" + i + "=" + String.format("%.4f", 100 + random.nextGaussian() * 5) + "\n");
+                }
+            } finally {
+                out.close();
+            }
+        }
+        return dir;
+    }
+
+    public static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,84 @@
+package org.bzewdu.bench;
+
+import org.bzewdu.util.Results;
+import org.bzewdu.util.Subresults;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Parsing one results directory: the results.* file with a long
+// scores line, and its subresults.* files. The Properties variant is
+// the old way of reading the same file, kept as a reference point.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultsParseBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int scores;
+
+    @Param({"20", "200"})
+    public int subresultFiles;
+
+    private File root;
+    private File dir;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("compare-bench").toFile();
+        dir = Fixtures.writeResultsDir(new File(root, "results.bench"), "bench",
+                scores, subresultFiles, 50, 42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public Results results() throws IOException {
+        return new Results(dir);
+    }
+
+    @Benchmark
+    public Subresults subresults() throws IOException {
+        return new Subresults(dir, false);
+    }
+
+    @Benchmark
+    public double propertiesReference() throws IOException {
+        Properties props = new Properties();
+        InputStream in = new BufferedInputStream(new FileInputStream(new File(dir, "results.bench")));
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        double sum = 0;
+        for (String s : props.getProperty("scores").split(" ")) {
+            sum += Double.parseDouble(s);
+        }
+        return sum;
+    }
+}
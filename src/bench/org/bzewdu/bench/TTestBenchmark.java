@@ -0,0 +1,76 @@
+package org.bzewdu.bench;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.stat.inference.TTestImpl;
+import org.bzewdu.stats.DataSet;
+import org.bzewdu.stats.WelchTTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Significance tests over a whole suite, one baseline/specimen pair
+// per row, the way Compare.printSpecimenResults runs them.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TTestBenchmark {
+    @Param({"100", "5000"})
+    public int rows;
+
+    @Param({"10", "1000"})
+    public int samples;
+
+    private DataSet[] baseline;
+    private DataSet[] specimen;
+
+    @Setup
+    public void setup() {
+        baseline = new DataSet[rows];
+        specimen = new DataSet[rows];
+        for (int i = 0; i < rows; i++) {
+            baseline[i] = toDataSet(Fixtures.gaussian(samples, 100, 10, i));
+            specimen[i] = toDataSet(Fixtures.gaussian(samples, 101, 10, rows + i));
+        }
+    }
+
+    private static DataSet toDataSet(double[] values) {
+        DataSet data = new DataSet();
+        for (double v : values) {
+            data.add(v);
+        }
+        return data;
+    }
+
+    @Benchmark
+    public double commonsMathSuite() throws MathException {
+        double sum = 0;
+        for (int i = 0; i < rows; i++) {
+            TTestImpl ttest = new TTestImpl();
+            sum += ttest.tTest(specimen[i].toDoubleArray(), baseline[i].toDoubleArray());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double welchSuite() {
+        double sum = 0;
+        for (int i = 0; i < rows; i++) {
+            sum += WelchTTest.pValue(specimen[i], baseline[i]);
+        }
+        return sum;
+    }
+}
@@ -1,37 +1,74 @@
 package org.bzewdu.compare;
 
 
-import org.apache.commons.math.MathException;
-import org.apache.commons.math.stat.inference.TTestImpl;
-import org.bzewdu.stats.CompareUtils;
-import org.bzewdu.stats.DataSet;
+import org.bzewdu.stats.Bootstrap;
+import org.bzewdu.util.ExecutionStats;
 import org.bzewdu.util.Results;
-import org.bzewdu.util.Subresults;
+import org.bzewdu.util.ResultsCache;
 
-import java.io.File;
-import java.io.FileFilter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Compare {
 
     static boolean recursive = false;
+    static ResultsLoader loader;
+    static Comparison comparison;
+    static ReportWriter report;
+
+    private static final long DEFAULT_SEED = 1;
 
     private static void usage() {
-        System.out.println("Usage: java Compare [-v] [-r] [results dir 1] [results dir 2] ...");
+        System.out.println("Usage: java Compare [-v] [-r] [-w] [-j threads] [-b resamples] [-s seed] [-p] [-q compression] [-t threads] [-d depth] [-c threads] [-m] [-l] [-f format] [--stats] [results dir 1] [results dir 2] ...");
         System.out.println("Prints statistical comparison of two or more benchmark results.");
+        System.out.println("  -j threads  parse results directories concurrently on the given number of threads");
+        System.out.println("  -w          keep running and print rows again as their results change");
+        System.out.println("  -b resamples  add 95% bootstrap confidence intervals for the mean and %Diff");
+        System.out.println("  -s seed     random seed for -b (default " + DEFAULT_SEED + ")");
+        System.out.println("  -p          add the p50, p99 and p99.9 of each benchmark and sub-benchmark");
+        System.out.println("  -q compression  as -p, but summarize sub-benchmark samples in t-digests of the");
+        System.out.println("              given compression (e.g. 100) instead of keeping them in memory");
+        System.out.println("  -t threads  walk the trees of -r on a work-stealing pool of the given size");
+        System.out.println("  -d depth    descend at most depth levels below the runs in -r mode");
+        System.out.println("  -c threads  compare the specimens against the baseline concurrently");
+        System.out.println("  -m          compare every run with every other and rank them per benchmark;");
+        System.out.println("              not with -w, -b, -p, -q, -t or -c");
+        System.out.println("  -l          hold only one benchmark of each run in memory at a time, spooling the");
+        System.out.println("              specimen sections to temporary files; not with -w, -m, -j, -t or -c");
+        System.out.println("  -f format   text (default), csv or json (one JSON object per line)");
+        System.out.println("  --stats     print file, sample and heap counts and the time per phase to stderr");
+        System.out.println("Negative scores are failed iterations and are left out of means, deviations and p-values.");
         System.exit(1);
     }
 
     public static void main(String[] args) throws IOException {
+        long startTime = System.nanoTime();
         ArrayList<String> dirs = new ArrayList<String>();
+        int numThreads = 1;
+        boolean watch = false;
+        int resamples = 0;
+        long seed = DEFAULT_SEED;
+        String format = "text";
+        boolean quantiles = false;
+        double compression = 0;
+        int traversalThreads = 1;
+        int maxDepth = Integer.MAX_VALUE;
+        int specimenThreads = 1;
+        boolean matrix = false;
+        boolean streaming = false;
 
         if (args.length < 2) {
             usage();
         }
 
-        for (String arg : args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
             if (arg.equals("-v")) {
                 System.err.println("compareStats 0.13");
                 System.exit(0);
@@ -40,8 +77,98 @@ public class Compare {
                 recursive = true;
                 continue;
             }
+            if (arg.equals("-w")) {
+                watch = true;
+                continue;
+            }
+            if (arg.equals("-f")) {
+                if (++i == args.length || !Arrays.asList(ReportWriter.FORMATS).contains(args[i])) {
+                    usage();
+                }
+                format = args[i];
+                continue;
+            }
+            if (arg.equals("-p")) {
+                quantiles = true;
+                continue;
+            }
+            if (arg.equals("-m")) {
+                matrix = true;
+                continue;
+            }
+            if (arg.equals("-l")) {
+                streaming = true;
+                continue;
+            }
+            if (arg.equals("--stats")) {
+                ExecutionStats.setEnabled(true);
+                continue;
+            }
+            if (arg.equals("-j") || arg.equals("-b") || arg.equals("-s") || arg.equals("-q") ||
+                    arg.equals("-t") || arg.equals("-d") || arg.equals("-c")) {
+                if (++i == args.length) {
+                    usage();
+                }
+                try {
+                    if (arg.equals("-j")) {
+                        numThreads = Integer.parseInt(args[i]);
+                    } else if (arg.equals("-b")) {
+                        resamples = Integer.parseInt(args[i]);
+                    } else if (arg.equals("-t")) {
+                        traversalThreads = Integer.parseInt(args[i]);
+                    } else if (arg.equals("-d")) {
+                        maxDepth = Integer.parseInt(args[i]);
+                    } else if (arg.equals("-c")) {
+                        specimenThreads = Integer.parseInt(args[i]);
+                    } else if (arg.equals("-q")) {
+                        compression = Double.parseDouble(args[i]);
+                        quantiles = true;
+                    } else {
+                        seed = Long.parseLong(args[i]);
+                    }
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                continue;
+            }
             dirs.add(arg);
         }
+        if (matrix && (watch || resamples > 0 || quantiles || traversalThreads != 1 || specimenThreads != 1)) {
+            System.err.println("-m cannot be combined with -w, -b, -p, -q, -t or -c");
+            usage();
+        }
+        if (streaming && (watch || matrix || numThreads != 1 || traversalThreads != 1 || specimenThreads != 1)) {
+            System.err.println("-l cannot be combined with -w, -m, -j, -t or -c");
+            usage();
+        }
+        ResultsCache cache = new ResultsCache();
+        cache.setSketchCompression(compression);
+        loader = new ResultsLoader(numThreads, cache);
+        comparison = new Comparison(loader, recursive);
+        comparison.setMemoizing(watch);
+        comparison.setQuantiles(quantiles);
+        comparison.setMaxDepth(maxDepth);
+        comparison.setParallelism(traversalThreads);
+        if (resamples > 0) {
+            comparison.setBootstrap(new Bootstrap(resamples, seed));
+        }
+        report = ReportWriter.create(format, System.out, resamples > 0, quantiles);
+        if (streaming) {
+            if (dirs.size() < 2) {
+                System.err.println("2 or more results are required to proceed...");
+                System.exit(0);
+            }
+            try {
+                new StreamingComparison(comparison, format, resamples > 0, quantiles, compression)
+                        .writeReport(dirs, report);
+            } finally {
+                report.flush();
+            }
+            printStats(startTime);
+            loader.shutdown();
+            return;
+        }
+
         ArrayList<Results[]> results = readResultFiles(dirs);
 
         if (results.size() < 2) {
@@ -49,246 +176,97 @@ public class Compare {
             System.exit(0);
         }
 
-        Results workload = null;
-        for (Results[] res_ : results) {
-            for (Results res : res_) {
-                if (res.isWorkload()) {
-                    workload = res;
-                    //weights = res.getWeights();
-                    break;
-                }
-            }
+        if (matrix) {
+            printMatrix(dirs, results, format);
+            printStats(startTime);
+            loader.shutdown();
+            return;
         }
-        
-        // Print output
-        printSeparator();
 
-        printBaselineResult(results.get(0), workload, recursive);
+        Results workload = findWorkload(results);
 
-        for (Results[] result : results) {
-            if (!results.get(0).equals(result)) {
-                printSpecimenResults(workload, results.get(0), result);
-            }
+        // Print output
+        try {
+            printReport(comparison, report, results, workload, specimenThreads);
+        } finally {
+            // Show whatever was computed before a failure
+            report.flush();
         }
-
-        printSeparator();
-    }
-
-    private static ArrayList<Results[]> readResultFiles(ArrayList<String> dirs) throws IOException {
-        ArrayList<Results[]> results = new ArrayList<Results[]>();
-        for (String dir : dirs) {
-            results.add(readResults(listResultDirectories(new File(dir))));
+        printStats(startTime);
+        if (watch) {
+            new CompareWatcher(dirs, loader, comparison, report).run();
         }
-        return results;
+        loader.shutdown();
     }
 
-    private static void printSpecimenResults(Results workload, Results[] results1, Results[] results2) throws IOException {
-        printSeparator();
-        System.out.print(results2[0].getDirectory());
-        		 
-        if (workload != null) {
-            System.out.println(": " + workload.getName());
-        } else {
-            System.out.println();
-        }
-        printSecondHeading();
-        printSpecimenResults(results1, results2, workload, recursive);
-        if (workload != null) {
-            printLine();
-            for (Results res : results2) {
-                if (res.isWorkload()) {
-                    System.out.printf("  Weighted Geomean%23.2f%10.2f",
-                            res.getMean(),
-                            CompareUtils.percentDiff(workload.getMean(), res.getMean(), workload.isHigherBetter()));
-                    System.out.println();
-                }
-            }
-        }
-    }
+    /**
+     * Writes the whole report for the given runs, the first of which
+     * is the baseline.
+     */
+    static void printReport(Comparison comparison, ReportWriter report, List<Results[]> results,
+                            Results workload, int specimenThreads) throws IOException {
+        report.startReport();
 
-    private static void printBaselineResult(Results[] results1, Results workload, boolean recursive) throws IOException {
-        System.out.print(results1[0].getDirectory());
+        printBaselineResult(comparison, report, results.get(0), workload);
 
-        if (workload != null) {
-            System.out.println(": " + workload.getName());
+        if (specimenThreads > 1 && results.size() > 2) {
+            SpecimenComparator specimens = new SpecimenComparator(comparison, specimenThreads);
+            specimens.writeSections(results.get(0), results.subList(1, results.size()), workload, report);
+            specimens.shutdown();
         } else {
-            System.out.println();
+            for (Results[] result : results) {
+                if (!results.get(0).equals(result)) {
+                    printSpecimenResults(comparison, report, workload, results.get(0), result);
+                }
+            }
         }
-        printFirstHeading();
 
-
-        printBaselineResults(results1, (workload != null), recursive);
-        if (workload != null) {
-            printLine();
-            System.out.printf("  Weighted Geomean%22.2f", workload.getMean());
-            System.out.println();
-        }
+        report.endReport();
     }
 
-    private static void printSeparator() {
-        for (int i = 0; i < 80; i++) System.out.print("=");
-        System.out.println();
-    }
-
-    private static void printLine() {
-        System.out.print("  ");
-        for (int i = 0; i < 78; i++) System.out.print("-");
-        System.out.println();
-    }
-
-    private static void printFirstHeading() {
-        // Column number      2                   22             37       46                65
-        System.out.println("  Benchmark           Samples        Mean     Stdev");//        Geomean Weight
+    private static void printStats(long startTime) {
+        if (ExecutionStats.isEnabled()) {
+            ExecutionStats.print(System.err, System.nanoTime() - startTime);
+        }
     }
 
-    private static void printSecondHeading() {
-        // Column number      2                   22             37       46        54         63   67
-        System.out.println("  Benchmark           Samples        Mean     Stdev     %Diff     P  Significant");
+    // -m: all runs against each other instead of against the first
+    private static void printMatrix(List<String> dirs, List<Results[]> results, String format) throws IOException {
+        ComparisonMatrix matrix = new ComparisonMatrix(comparison, loader, dirs, results);
+        matrix.compute(ForkJoinPool.commonPool());
+        matrix.write(new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out),
+                ReportWriter.BUFFER_SIZE)), format);
     }
 
-    private static void printBaselineResults(Results[] baselineResults,
-                                             boolean haveBaselineWorkload,
-                                             boolean recursive) throws IOException {
-        for (Results res : baselineResults) {
-            if (!res.isWorkload()) {
-                System.out.printf("  %-24s%3d%12.2f%10.2f",
-                        res.getName(),
-                        res.getSuccesses(),
-                        res.getMean(),
-                        res.getStddev());
-                System.out.println();
-            }
-            if (recursive) {
-                // Extract and print subresults from this directory
-                Subresults subres = new Subresults(res.getDirectory(), false);
-                for (String subbenchmark : subres.benchmarkNames()) {
-                    DataSet data = subres.get(subbenchmark);
-                    // FIXME:  deduce which geomean
-                    // weight goes with which benchmark
-                    System.out.printf("    %-22s%3d%12.2f%10.2f",
-                            subbenchmark,
-                            data.numSamples(),
-                            data.mean(),
-                            data.stddev());
-                    System.out.println();
-                }
-            }
-        }
-
-         if (!haveBaselineWorkload &&
-                recursive &&
-                (baselineResults.length > 0) &&
-                (new File(baselineResults[0].getDirectory(), "results." + baselineResults[0].getRandomSubresultName()).exists())) {
-            for (Results res : baselineResults) {
-                File[] dirs = listResultDirectories(res.getDirectory());
-                // Convert to Results
-                Results[] results = readResults(dirs);
-                // Recur
-                printBaselineResults(results, haveBaselineWorkload, recursive);
-            }
-        }
+    private static ArrayList<Results[]> readResultFiles(ArrayList<String> dirs) throws IOException {
+        return loader.readRuns(dirs);
     }
 
-    private static void printSpecimenResults(Results[] baselineResults,
-                                             Results[] specimenResults,
-                                             Results baselineWorkload,
-                                             boolean recursive) throws IOException {
-        for (int i = 0; i < baselineResults.length; i++) {
-            Results res1 = baselineResults[i];
-            Results res2 = specimenResults[i];
-            if (!res2.isWorkload()) {
-                /*
-                 * See API documentation for apache-commons-math 
-                 * http://jakarta.apache.org/commons/math/apidocs/org/apache/commons/math/stat/inference/TTest.html
-                 */
-                TTestImpl ttest = new TTestImpl();
-                double tValue = ttest.t(res2.getScores().toDoubleArray(), res1.getScores().toDoubleArray());
-                double pValue = 0;
-
-                try {
-                      pValue = ttest.tTest(res2.getScores().toDoubleArray(), res1.getScores().toDoubleArray());
-                } catch (MathException e) {
-                    System.err.println("Encountered MathException: " + e.getMessage());
-                    System.err.println("Exiting.");
-                    e.printStackTrace();
-                    System.exit(-1);
-                }
-
-                boolean isHigherBetter =
-                        (baselineWorkload != null) ? baselineWorkload.isHigherBetter() : res2.isHigherBetter();
-
-                System.out.printf("  %-24s%3d%12.2f%10.2f%10.2f%6.3f%13s",
-                        res2.getName(),
-                        res2.getSuccesses(),
-                        res2.getMean(),
-                        res2.getStddev(),
-                        CompareUtils.percentDiff(res1.getMean(), res2.getMean(), isHigherBetter),
-                        pValue,
-                        (pValue < 0.01) ? "Yes" : "*");
-                System.out.println();
-                if (recursive) {
-                    Subresults subres1 = new Subresults(res1.getDirectory(), false);
-                    Subresults subres2 = new Subresults(res2.getDirectory(), false);
-                    for (String subbenchmark : subres1.benchmarkNames()) {
-                        DataSet data1 = subres1.get(subbenchmark);
-                        DataSet data2 = subres2.get(subbenchmark);
-                        try {
-                              pValue = ttest.tTest(data2.toDoubleArray(), data1.toDoubleArray());
-                        } catch (MathException e) {
-                              System.err.println("Encountered MathException: " + e.getMessage());
-                              System.err.println("Exiting.");
-                              e.printStackTrace();
-                              System.exit(-1);
-                        }
-
-                        System.out.printf("    %-22s%3d%12.2f%10.2f%10.2f%6.3f%13s",
-                                subbenchmark,
-                                data2.numSamples(),
-                                data2.mean(),
-                                data2.stddev(),
-                                CompareUtils.percentDiff(data1.mean(), data2.mean(), res2.isSubresultHigher(subbenchmark)), pValue, (pValue < 0.01) ? "Yes" : "*");
-                                System.out.println();
-                    }
+    static Results findWorkload(List<Results[]> results) {
+        Results workload = null;
+        for (Results[] res_ : results) {
+            for (Results res : res_) {
+                if (res.isWorkload()) {
+                    workload = res;
+                    //weights = res.getWeights();
+                    break;
                 }
             }
         }
-
-         if ((baselineWorkload == null) &&
-                recursive &&
-                (baselineResults.length > 0) &&
-                (new File(baselineResults[0].getDirectory(), "results." + baselineResults[0].getRandomSubresultName()).exists())) {
-            for (int i = 0; i < baselineResults.length; i++) {
-                File[] dirs1 = listResultDirectories(baselineResults[i].getDirectory());
-                File[] dirs2 = listResultDirectories(specimenResults[i].getDirectory());
-                // Convert to Results
-                Results[] results1 = readResults(dirs1);
-                Results[] results2 = readResults(dirs2);
-                // Recur
-                printSpecimenResults(results1, results2, baselineWorkload, recursive);
-            }
-        }
+        return workload;
     }
 
-    private static File[] listResultDirectories(File baseDir) throws IOException {
-        File[] dirs = baseDir.listFiles(new FileFilter() {
-            public boolean accept(File f) {
-                return (f.getName().startsWith("results.") &&
-                        f.isDirectory());
-            }
-        });
-        if (dirs == null) {
-            throw new IOException("Directory not found: " + baseDir);
-        }
-        Arrays.sort(dirs);
-        return dirs;
+    private static void printSpecimenResults(Comparison comparison, ReportWriter report,
+                                             Results workload, Results[] results1, Results[] results2) throws IOException {
+        report.startSection(results2, workload, false);
+        comparison.specimenRows(results1, results2, workload, report);
+        report.endSection(workload != null);
     }
 
-    private static Results[] readResults(File[] resultDirs) throws IOException {
-        Results[] results = new Results[resultDirs.length];
-        for (int i = 0; i < resultDirs.length; i++) {
-            results[i] = new Results(resultDirs[i]);
-        }
-        return results;
+    private static void printBaselineResult(Comparison comparison, ReportWriter report,
+                                            Results[] results1, Results workload) throws IOException {
+        report.startSection(results1, workload, true);
+        comparison.baselineRows(results1, workload, report);
+        report.endSection(workload != null);
     }
-
 }
@@ -0,0 +1,332 @@
+package org.bzewdu.compare;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bzewdu.stats.Bootstrap;
+import org.bzewdu.util.JsonReader;
+import org.bzewdu.util.Results;
+import org.bzewdu.util.ResultsCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Answers comparison requests over HTTP from a long-running JVM, so
+// that parsed Results and Subresults, open results indexes and the
+// compiled statistics code stay warm between calls. Only the loopback
+// interface is bound.
+//
+// POST /compare takes a JSON object such as
+//
+//   {"runs": ["base", "spec1"], "recursive": true, "format": "json"}
+//
+// with the optional members recursive, resamples, seed, quantiles,
+// maxDepth and format (json, csv or text, default json) meaning what
+// the corresponding Compare options do, and streams back the report.
+// Bodies over MAX_BODY bytes are refused. GET /stats returns request
+// and cache counters.
+//
+// Every request scans its runs again if the files directly in their
+// roots changed, or at the latest ResultsManifest.RESCAN_MILLIS after
+// the last scan. Cached Results and Subresults are then parsed again
+// if the modification time of their directory or of one of their
+// results.* and subresults.* files changed. A results index that was
+// created or rewritten since the last request is mapped again. The
+// scans, indexes and open archives of the ResultsManifest.MAX_ROOTS
+// runs requested last are kept, and the parsed results as far as the
+// ResultsCache holds them.
+
+public class CompareServer {
+    public static final int DEFAULT_PORT = 7171;
+    public static final int MAX_BODY = 1 << 20;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ResultsLoader loader;
+    private final HttpServer server;
+    private final AtomicLong requests = new AtomicLong();
+
+    public CompareServer(int port, ResultsLoader loader, ExecutorService handlers) throws IOException {
+        this.loader = loader;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/compare", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                compare(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                stats(exchange);
+            }
+        });
+        server.setExecutor(handlers);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void compare(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "Use POST with a JSON body");
+                return;
+            }
+            Map<String, Object> request;
+            List<String> runs;
+            String format;
+            byte[] bytes = readAll(exchange.getRequestBody(), MAX_BODY);
+            if (bytes == null) {
+                sendError(exchange, 413, "Request bodies are limited to " + MAX_BODY + " bytes");
+                return;
+            }
+            try {
+                Object body = JsonReader.parse(new String(bytes, UTF8));
+                if (!(body instanceof Map)) {
+                    throw new IllegalArgumentException("Expected a JSON object");
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) body;
+                request = map;
+                runs = getRuns(request);
+                format = getString(request, "format", "json");
+                if (!isFormat(format)) {
+                    throw new IllegalArgumentException("Unknown format " + format);
+                }
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            Comparison comparison = new Comparison(loader, getBoolean(request, "recursive", false));
+            boolean quantiles = getBoolean(request, "quantiles", false);
+            int resamples = (int) getNumber(request, "resamples", 0);
+            comparison.setQuantiles(quantiles);
+            comparison.setMaxDepth((int) getNumber(request, "maxDepth", Integer.MAX_VALUE));
+            if (resamples > 0) {
+                comparison.setBootstrap(new Bootstrap(resamples, (long) getNumber(request, "seed", 1)));
+            }
+
+            // Read the runs before committing to a status, so that
+            // missing or malformed results are reported as such
+            ArrayList<Results[]> results;
+            try {
+                results = loader.readRuns(runs);
+            } catch (IOException e) {
+                sendError(exchange, 422, e.getMessage());
+                return;
+            } catch (RuntimeException e) {
+                sendError(exchange, 422, e.toString());
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", contentType(format));
+            exchange.sendResponseHeaders(200, 0);
+            ReportWriter report = ReportWriter.create(format, exchange.getResponseBody(), UTF8,
+                    resamples > 0, quantiles);
+            try {
+                Compare.printReport(comparison, report, results, Compare.findWorkload(results), 1);
+            } catch (IOException e) {
+                // Too late for an error status; the truncated response
+                // is all the client sees
+                report.flush();
+                System.err.println("Comparison of " + runs + " failed: " + e.getMessage());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            ResultsCache cache = loader.getCache();
+            send(exchange, 200, "{\"requests\":" + requests.get() +
+                    ",\"cachedObjects\":" + cache.size() +
+                    ",\"cacheHits\":" + cache.getHits() +
+                    ",\"cacheMisses\":" + cache.getMisses() + "}\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static List<String> getRuns(Map<String, Object> request) {
+        Object runs = request.get("runs");
+        if (!(runs instanceof List)) {
+            throw new IllegalArgumentException("\"runs\" must be an array of results directories");
+        }
+        List<String> dirs = new ArrayList<String>();
+        for (Object run : (List<?>) runs) {
+            if (!(run instanceof String)) {
+                throw new IllegalArgumentException("\"runs\" must only contain strings");
+            }
+            dirs.add((String) run);
+        }
+        if (dirs.size() < 2) {
+            throw new IllegalArgumentException("2 or more runs are required");
+        }
+        return dirs;
+    }
+
+    private static String getString(Map<String, Object> request, String name, String defaultValue) {
+        Object value = request.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a string");
+        }
+        return (String) value;
+    }
+
+    private static boolean getBoolean(Map<String, Object> request, String name, boolean defaultValue) {
+        Object value = request.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Boolean)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be true or false");
+        }
+        return (Boolean) value;
+    }
+
+    private static double getNumber(Map<String, Object> request, String name, double defaultValue) {
+        Object value = request.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a number");
+        }
+        return (Double) value;
+    }
+
+    private static boolean isFormat(String format) {
+        for (String f : ReportWriter.FORMATS) {
+            if (f.equals(format)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String contentType(String format) {
+        if (format.equals("json")) {
+            return "application/x-ndjson; charset=utf-8";
+        } else if (format.equals("csv")) {
+            return "text/csv; charset=utf-8";
+        }
+        return "text/plain; charset=utf-8";
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "{\"error\":" + JsonLinesReportWriter.string(String.valueOf(message)) + "}\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    // Returns null, without reading further, once more than limit
+    // bytes arrive
+    private static byte[] readAll(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            if (bytes.size() + n > limit) {
+                return null;
+            }
+            bytes.write(buf, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * One virtual thread per request where the JDK has them (21 and
+     * later), otherwise a fixed pool of the given size.
+     */
+    static ExecutorService newHandlerExecutor(int numThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "Compare Server " + count.incrementAndGet());
+                }
+            });
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: java CompareServer [-p port] [-j threads] [-n threads] [-q compression]");
+        System.out.println("Answers comparison requests on http://localhost:" + DEFAULT_PORT + "/compare.");
+        System.out.println("  -p port     port to listen on");
+        System.out.println("  -j threads  parse results directories concurrently on the given number of threads");
+        System.out.println("  -n threads  requests handled at once, unless the JDK has virtual threads");
+        System.out.println("  -q compression  keep sub-benchmark samples in t-digests of the given compression");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int numThreads = 1;
+        int handlerThreads = Runtime.getRuntime().availableProcessors();
+        double compression = 0;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (++i == args.length) {
+                usage();
+            }
+            try {
+                if (arg.equals("-p")) {
+                    port = Integer.parseInt(args[i]);
+                } else if (arg.equals("-j")) {
+                    numThreads = Integer.parseInt(args[i]);
+                } else if (arg.equals("-n")) {
+                    handlerThreads = Integer.parseInt(args[i]);
+                } else if (arg.equals("-q")) {
+                    compression = Double.parseDouble(args[i]);
+                } else {
+                    usage();
+                }
+            } catch (NumberFormatException e) {
+                usage();
+            }
+        }
+        ResultsCache cache = new ResultsCache();
+        cache.setSketchCompression(compression);
+        CompareServer server = new CompareServer(port, new ResultsLoader(numThreads, cache),
+                newHandlerExecutor(handlerThreads));
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.getPort() + "/compare");
+    }
+}
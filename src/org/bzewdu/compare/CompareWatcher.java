@@ -0,0 +1,203 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+import org.bzewdu.util.ResultsIndex;
+import org.bzewdu.util.ResultsManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Watches the baseline and specimen trees while a benchmark campaign
+// is still writing to them. Every directory that sees a change is
+// dropped from the ResultsCache; the report is then recomputed, which
+// re-parses only those directories and reuses the memoized rows of
+// everything else, and the rows that differ from the last report are
+// printed.
+
+public class CompareWatcher {
+    // A burst of writes is handled as one change once it has been
+    // quiet for this long
+    private static final long QUIET_MILLIS = 1000;
+
+    private final List<String> runDirs;
+    private final ResultsLoader loader;
+    private final Comparison comparison;
+    private final ReportWriter report;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+    private List<List<ReportRow>> previous;
+
+    public CompareWatcher(List<String> runDirs, ResultsLoader loader, Comparison comparison,
+                          ReportWriter report) throws IOException {
+        this.runDirs = runDirs;
+        this.loader = loader;
+        this.comparison = comparison;
+        this.report = report;
+        watcher = FileSystems.getDefault().newWatchService();
+        for (String dir : runDirs) {
+            registerTree(Paths.get(dir));
+        }
+        // Everything is cached by now, so this only collects the rows
+        // that were just printed
+        previous = computeSections(loader.readRuns(runDirs));
+    }
+
+    /**
+     * Waits for changes and prints updated rows until interrupted.
+     */
+    public void run() throws IOException {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<File> changed = new HashSet<File>();
+                boolean overflow = collect(key, changed);
+                while ((key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, changed);
+                }
+                if (overflow) {
+                    loader.getCache().clear();
+                    ResultsIndex.invalidateAll();
+                    ResultsManifest.invalidateAll();
+                } else {
+                    for (File dir : changed) {
+                        loader.getCache().invalidate(dir);
+                        ResultsIndex.invalidate(dir);
+                        ResultsManifest.invalidate(dir);
+                    }
+                }
+                refresh();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watcher.close();
+        }
+    }
+
+    private void refresh() {
+        List<List<ReportRow>> sections;
+        ArrayList<Results[]> results;
+        try {
+            comparison.startPass();
+            results = loader.readRuns(runDirs);
+            sections = computeSections(results);
+        } catch (IOException e) {
+            // Most likely a results file that is still being written;
+            // the next change will retry
+            System.err.println("Cannot compare yet: " + e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            System.err.println("Cannot compare yet: " + e);
+            return;
+        }
+
+        Results workload = Compare.findWorkload(results);
+        boolean printedHeader = false;
+        for (int i = 0; i < sections.size(); i++) {
+            Set<ReportRow> old = new HashSet<ReportRow>();
+            if (i < previous.size()) {
+                old.addAll(previous.get(i));
+            }
+            List<ReportRow> changedRows = new ArrayList<ReportRow>();
+            for (ReportRow row : sections.get(i)) {
+                if (!old.contains(row)) {
+                    changedRows.add(row);
+                }
+            }
+            if (changedRows.isEmpty()) {
+                continue;
+            }
+            if (!printedHeader) {
+                report.startUpdate(new Date());
+                printedHeader = true;
+            }
+            report.startSection(results.get(i), workload, i == 0);
+            for (ReportRow row : changedRows) {
+                report.row(row);
+            }
+            report.endSection(false);
+        }
+        if (printedHeader) {
+            report.endUpdate();
+        }
+        previous = sections;
+    }
+
+    private List<List<ReportRow>> computeSections(ArrayList<Results[]> results) throws IOException {
+        Results workload = Compare.findWorkload(results);
+        List<List<ReportRow>> sections = new ArrayList<List<ReportRow>>();
+        sections.add(comparison.baselineRows(results.get(0), workload));
+        for (int i = 1; i < results.size(); i++) {
+            sections.add(comparison.specimenRows(results.get(0), results.get(i), workload));
+        }
+        return sections;
+    }
+
+    // Returns true if events were lost and everything must be re-read
+    private boolean collect(WatchKey key, Set<File> changed) throws IOException {
+        Path dir = keys.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            changed.add(dir.toFile());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+                    isResultsDirectory(child) && Files.isDirectory(child)) {
+                registerTree(child);
+                changed.add(child.toFile());
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+        return overflow;
+    }
+
+    private void registerTree(final Path root) throws IOException {
+        final Set<Path> registered = new LinkedHashSet<Path>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && !isResultsDirectory(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                registered.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Path dir : registered) {
+            WatchKey key = dir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(key, dir);
+        }
+    }
+
+    private static boolean isResultsDirectory(Path dir) {
+        Path name = dir.getFileName();
+        return name != null && name.toString().startsWith("results.");
+    }
+}
@@ -0,0 +1,491 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.stats.Bootstrap;
+import org.bzewdu.stats.CompareUtils;
+import org.bzewdu.stats.DataSet;
+import org.bzewdu.stats.WelchTTest;
+import org.bzewdu.util.ExecutionStats;
+import org.bzewdu.util.Results;
+import org.bzewdu.util.ResultsManifest;
+import org.bzewdu.util.Subresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Computes the rows of the baseline and specimen sections of a
+// report, in the order Compare prints them. In -r mode this walks the
+// results.* trees, reading them through the given loader.
+//
+// When memoizing, the rows computed for each benchmark are kept
+// together with the parsed objects they came from. A later pass that
+// gets the very same Results and Subresults back from the cache reuses
+// the rows instead of recomputing them; only groups seen in the last
+// pass are retained.
+
+public class Comparison {
+    private final ResultsLoader loader;
+    private final boolean recursive;
+    private boolean memoizing;
+    private Bootstrap bootstrap;
+    private boolean quantiles;
+    private int maxDepth = Integer.MAX_VALUE;
+    private TreeTraversal traversal;
+    private Map<GroupKey, List<ReportRow>> groups = new HashMap<GroupKey, List<ReportRow>>();
+    private Map<GroupKey, List<ReportRow>> previousGroups = new HashMap<GroupKey, List<ReportRow>>();
+
+    public Comparison(ResultsLoader loader, boolean recursive) {
+        this.loader = loader;
+        this.recursive = recursive;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    public void setMemoizing(boolean memoizing) {
+        this.memoizing = memoizing;
+    }
+
+    /**
+     * Adds bootstrap confidence intervals to every benchmark and
+     * sub-benchmark row; null turns them off.
+     */
+    public void setBootstrap(Bootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    public Bootstrap getBootstrap() {
+        return bootstrap;
+    }
+
+    /**
+     * Adds the ReportRow.QUANTILES of every benchmark and
+     * sub-benchmark row, and their %Diff to the baseline.
+     */
+    public void setQuantiles(boolean quantiles) {
+        this.quantiles = quantiles;
+    }
+
+    /**
+     * Limits -r mode to the given number of levels below the runs.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Walks -r trees on a ForkJoinPool of the given parallelism; 1
+     * walks them on the calling thread.
+     */
+    public void setParallelism(int parallelism) {
+        traversal = (parallelism > 1) ?
+                new TreeTraversal(this, loader, new ForkJoinPool(parallelism)) : null;
+    }
+
+    /**
+     * Starts a new pass over the results; row groups not used since
+     * the previous call are dropped.
+     */
+    public synchronized void startPass() {
+        previousGroups = groups;
+        groups = new HashMap<GroupKey, List<ReportRow>>();
+    }
+
+    /**
+     * Receives rows one at a time, in report order, as they are
+     * computed.
+     */
+    public interface RowSink {
+        void row(ReportRow row);
+    }
+
+    public List<ReportRow> baselineRows(Results[] baseline, Results workload) throws IOException {
+        ListSink rows = new ListSink();
+        baselineRows(baseline, workload, rows);
+        return rows.rows;
+    }
+
+    public void baselineRows(Results[] baseline, Results workload, RowSink sink) throws IOException {
+        if (traversal != null) {
+            traversal.run(baseline, null, workload, recursive && (workload == null), sink);
+        } else {
+            addBaselineRows(sink, baseline, (workload != null), 0);
+        }
+        if (workload != null) {
+            sink.row(baselineGeomeanRow(workload));
+        }
+    }
+
+    static ReportRow baselineGeomeanRow(Results workload) {
+        return new ReportRow(ReportRow.Kind.WEIGHTED_GEOMEAN, workload.getDirectory().getPath(),
+                "Weighted Geomean", 0, workload.getMean(), Double.NaN);
+    }
+
+    public List<ReportRow> specimenRows(Results[] baseline, Results[] specimen, Results workload) throws IOException {
+        ListSink rows = new ListSink();
+        specimenRows(baseline, specimen, workload, rows);
+        return rows.rows;
+    }
+
+    public void specimenRows(Results[] baseline, Results[] specimen, Results workload, RowSink sink) throws IOException {
+        if (traversal != null) {
+            traversal.run(baseline, specimen, workload, recursive && (workload == null), sink);
+        } else {
+            addSpecimenRows(sink, baseline, specimen, workload, 0);
+        }
+        if (workload != null) {
+            for (Results res : specimen) {
+                if (res.isWorkload()) {
+                    sink.row(specimenGeomeanRow(workload, res));
+                }
+            }
+        }
+    }
+
+    static ReportRow specimenGeomeanRow(Results workload, Results res) {
+        return new ReportRow(ReportRow.Kind.WEIGHTED_GEOMEAN, res.getDirectory().getPath(),
+                "Weighted Geomean", 0, res.getMean(), Double.NaN,
+                CompareUtils.percentDiff(workload.getMean(), res.getMean(), workload.isHigherBetter()),
+                Double.NaN);
+    }
+
+    private void addBaselineRows(RowSink sink,
+                                 Results[] baselineResults,
+                                 boolean haveBaselineWorkload,
+                                 int depth) throws IOException {
+        for (Results res : baselineResults) {
+            emit(sink, baselineGroup(res));
+        }
+
+        if (!haveBaselineWorkload && depth < maxDepth && hasChildren(baselineResults)) {
+            for (Results res : baselineResults) {
+                File[] dirs = loader.listResultDirectories(res.getDirectory());
+                // Convert to Results
+                Results[] results = loader.readResults(dirs);
+                // Recur
+                addBaselineRows(sink, results, haveBaselineWorkload, depth + 1);
+            }
+        }
+    }
+
+    // The benchmark's own row and, in -r mode, one row per sub-benchmark
+    public List<ReportRow> baselineGroup(Results res) throws IOException {
+        Subresults subres = recursive ? loader.getCache().getSubresults(res.getDirectory(), false) : null;
+        GroupKey key = new GroupKey(res, subres);
+        List<ReportRow> rows = lookup(key);
+        if (rows == null) {
+            rows = baselineGroup(res, subres);
+            store(key, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * As baselineGroup(Results), with the benchmark's subresults
+     * already at hand (null outside -r mode) and without memoizing.
+     */
+    public List<ReportRow> baselineGroup(Results res, Subresults subres) {
+        List<PendingRow> rows = new ArrayList<PendingRow>();
+        String path = res.getDirectory().getPath();
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.STATISTICS, path);
+        if (!res.isWorkload()) {
+            rows.add(new PendingRow(new ReportRow(ReportRow.Kind.BENCHMARK, path, res.getName(),
+                    res.getSuccesses(), res.getMean(), res.getStddev()), null, res.getScores(), false));
+        }
+        if (subres != null) {
+            for (String subbenchmark : subres.benchmarkNames()) {
+                DataSet data = subres.get(subbenchmark);
+                // FIXME:  deduce which geomean
+                // weight goes with which benchmark
+                rows.add(new PendingRow(new ReportRow(ReportRow.Kind.SUBBENCHMARK, path + "#" + subbenchmark, subbenchmark,
+                        data.numSamples(), data.mean(), data.stddev()), null, data, false));
+            }
+        }
+        List<ReportRow> done = withStatistics(rows);
+        timer.end(done.size());
+        return done;
+    }
+
+    private void addSpecimenRows(RowSink sink,
+                                 Results[] baselineResults,
+                                 Results[] specimenResults,
+                                 Results baselineWorkload,
+                                 int depth) throws IOException {
+        for (int i = 0; i < baselineResults.length; i++) {
+            emit(sink, specimenGroup(baselineResults[i], specimenResults[i], baselineWorkload));
+        }
+
+        if ((baselineWorkload == null) && depth < maxDepth && hasChildren(baselineResults)) {
+            for (int i = 0; i < baselineResults.length; i++) {
+                File[] dirs1 = loader.listResultDirectories(baselineResults[i].getDirectory());
+                File[] dirs2 = loader.listResultDirectories(specimenResults[i].getDirectory());
+                // Convert to Results
+                Results[] results1 = loader.readResults(dirs1);
+                Results[] results2 = loader.readResults(dirs2);
+                // Recur
+                addSpecimenRows(sink, results1, results2, baselineWorkload, depth + 1);
+            }
+        }
+    }
+
+    // The specimen benchmark's row and, in -r mode, its sub-benchmark
+    // rows, each compared against the baseline
+    public List<ReportRow> specimenGroup(Results res1, Results res2, Results baselineWorkload) throws IOException {
+        if (res2.isWorkload()) {
+            return new ArrayList<ReportRow>();
+        }
+        Subresults subres1 = null;
+        Subresults subres2 = null;
+        if (recursive) {
+            subres1 = loader.getCache().getSubresults(res1.getDirectory(), false);
+            subres2 = loader.getCache().getSubresults(res2.getDirectory(), false);
+        }
+        GroupKey key = new GroupKey(res1, res2, subres1, subres2, baselineWorkload);
+        List<ReportRow> rows = lookup(key);
+        if (rows == null) {
+            rows = specimenGroup(res1, res2, subres1, subres2, baselineWorkload);
+            store(key, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * As specimenGroup(Results, Results, Results), with the subresults
+     * of both benchmarks already at hand (null outside -r mode) and
+     * without memoizing.
+     */
+    public List<ReportRow> specimenGroup(Results res1, Results res2, Subresults subres1, Subresults subres2,
+                                         Results baselineWorkload) {
+        if (res2.isWorkload()) {
+            return new ArrayList<ReportRow>();
+        }
+        List<PendingRow> rows = new ArrayList<PendingRow>();
+        String path = res2.getDirectory().getPath();
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.STATISTICS, path);
+        /*
+         * Welch's t-test from the cached moments; same p-value as
+         * apache-commons-math's TTestImpl.tTest(double[], double[])
+         */
+        double pValue = WelchTTest.pValue(res2.getScores(), res1.getScores());
+
+        boolean isHigherBetter =
+                (baselineWorkload != null) ? baselineWorkload.isHigherBetter() : res2.isHigherBetter();
+
+        rows.add(new PendingRow(new ReportRow(ReportRow.Kind.BENCHMARK, path, res2.getName(),
+                res2.getSuccesses(), res2.getMean(), res2.getStddev(),
+                CompareUtils.percentDiff(res1.getMean(), res2.getMean(), isHigherBetter),
+                pValue), res1.getScores(), res2.getScores(), isHigherBetter));
+        if (subres1 != null) {
+            for (String subbenchmark : subres1.benchmarkNames()) {
+                DataSet data1 = subres1.get(subbenchmark);
+                DataSet data2 = subres2.get(subbenchmark);
+                pValue = WelchTTest.pValue(data2, data1);
+
+                boolean isSubresultHigher = res2.isSubresultHigher(subbenchmark);
+                rows.add(new PendingRow(new ReportRow(ReportRow.Kind.SUBBENCHMARK, path + "#" + subbenchmark, subbenchmark,
+                        data2.numSamples(), data2.mean(), data2.stddev(),
+                        CompareUtils.percentDiff(data1.mean(), data2.mean(), isSubresultHigher),
+                        pValue), data1, data2, isSubresultHigher));
+            }
+        }
+        List<ReportRow> done = withStatistics(rows);
+        timer.end(done.size());
+        return done;
+    }
+
+    // A row and the data its optional statistics come from; baseline
+    // is null for baseline rows
+    static class PendingRow {
+        final ReportRow row;
+        final DataSet baseline;
+        final DataSet specimen;
+        final boolean isHigherBetter;
+
+        PendingRow(ReportRow row, DataSet baseline, DataSet specimen, boolean isHigherBetter) {
+            this.row = row;
+            this.baseline = baseline;
+            this.specimen = specimen;
+            this.isHigherBetter = isHigherBetter;
+        }
+    }
+
+    // With a bootstrap, the rows of a group, e.g. the thousands of
+    // sub-benchmarks of a suite, are resampled in parallel; each row
+    // has its own random stream, so the order does not matter
+    private List<ReportRow> withStatistics(List<PendingRow> pending) {
+        ReportRow[] rows = new ReportRow[pending.size()];
+        StatisticsTask task = new StatisticsTask(pending, rows, 0, rows.length);
+        if (bootstrap == null || rows.length < 2) {
+            task.compute();
+        } else if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            bootstrap.getPool().invoke(task);
+        }
+        List<ReportRow> done = new ArrayList<ReportRow>(rows.length);
+        for (ReportRow row : rows) {
+            done.add(row);
+        }
+        return done;
+    }
+
+    @SuppressWarnings("serial")
+    class StatisticsTask extends RecursiveAction {
+        private final List<PendingRow> pending;
+        private final ReportRow[] rows;
+        private final int lo;
+        private final int hi;
+
+        StatisticsTask(List<PendingRow> pending, ReportRow[] rows, int lo, int hi) {
+            this.pending = pending;
+            this.rows = rows;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (bootstrap == null || hi - lo <= 1) {
+                for (int i = lo; i < hi; i++) {
+                    PendingRow p = pending.get(i);
+                    rows[i] = withStatistics(p.row, p.baseline, p.specimen, p.isHigherBetter);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new StatisticsTask(pending, rows, lo, mid), new StatisticsTask(pending, rows, mid, hi));
+        }
+    }
+
+    // Adds whatever optional statistics were asked for; baseline is
+    // null for baseline rows
+    private ReportRow withStatistics(ReportRow row, DataSet baseline, DataSet specimen, boolean isHigherBetter) {
+        return withQuantiles(withIntervals(row, baseline, specimen, isHigherBetter),
+                baseline, specimen, isHigherBetter);
+    }
+
+    // The row's benchmark names its random stream, so every row gets
+    // the same interval on every run with the same seed
+    private ReportRow withIntervals(ReportRow row, DataSet baseline, DataSet specimen, boolean isHigherBetter) {
+        if (bootstrap == null) {
+            return row;
+        }
+        String stream = streamName(row.getKey());
+        Bootstrap.Interval mean = bootstrap.meanInterval(specimen, stream);
+        if (baseline == null) {
+            return row.withIntervals(mean.getLower(), mean.getUpper(), Double.NaN, Double.NaN);
+        }
+        Bootstrap.Interval diff = bootstrap.percentDiffInterval(baseline, specimen, isHigherBetter, stream + "%");
+        return row.withIntervals(mean.getLower(), mean.getUpper(), diff.getLower(), diff.getUpper());
+    }
+
+    /**
+     * The part of a row key below its run, from the first results.*
+     * directory on, with '/' separators: the same for "spec",
+     * "./spec" or an absolute path to it.
+     */
+    static String streamName(String key) {
+        String path = key.replace(File.separatorChar, '/');
+        int start = path.startsWith("results.") ? 0 : path.indexOf("/results.") + 1;
+        return path.substring(start);
+    }
+
+    private ReportRow withQuantiles(ReportRow row, DataSet baseline, DataSet specimen, boolean isHigherBetter) {
+        if (!quantiles) {
+            return row;
+        }
+        double[] values = new double[ReportRow.QUANTILES.length];
+        double[] diffs = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = specimen.quantile(ReportRow.QUANTILES[i]);
+            diffs[i] = (baseline == null) ? Double.NaN :
+                    CompareUtils.percentDiff(baseline.quantile(ReportRow.QUANTILES[i]), values[i], isHigherBetter);
+        }
+        return row.withQuantiles(values, diffs);
+    }
+
+    private static void emit(RowSink sink, List<ReportRow> rows) {
+        for (ReportRow row : rows) {
+            sink.row(row);
+        }
+    }
+
+    private static class ListSink implements RowSink {
+        final List<ReportRow> rows = new ArrayList<ReportRow>();
+
+        public void row(ReportRow row) {
+            rows.add(row);
+        }
+    }
+
+    // Whether the results have results.* subdirectories of their own
+    // to recur into
+    boolean hasChildren(Results[] results) {
+        return recursive &&
+                (results.length > 0) &&
+                ResultsManifest.exists(new File(results[0].getDirectory(), "results." + results[0].getRandomSubresultName()));
+    }
+
+    private synchronized List<ReportRow> lookup(GroupKey key) {
+        if (!memoizing) {
+            return null;
+        }
+        List<ReportRow> rows = groups.get(key);
+        if (rows == null) {
+            rows = previousGroups.get(key);
+            if (rows != null) {
+                groups.put(key, rows);
+            }
+        }
+        return rows;
+    }
+
+    private synchronized void store(GroupKey key, List<ReportRow> rows) {
+        if (memoizing) {
+            groups.put(key, rows);
+        }
+    }
+
+    // Compares the parsed objects a group was computed from by identity
+    static class GroupKey {
+        private final Object[] parts;
+
+        GroupKey(Object... parts) {
+            this.parts = parts;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            Object[] other = ((GroupKey) o).parts;
+            if (other.length != parts.length) {
+                return false;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i] != other[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int hashCode() {
+            int h = 0;
+            for (Object part : parts) {
+                h = h * 31 + System.identityHashCode(part);
+            }
+            return h;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.stats.CompareUtils;
+import org.bzewdu.stats.DataSet;
+import org.bzewdu.stats.WelchTTest;
+import org.bzewdu.util.Results;
+import org.bzewdu.util.Subresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Compares every run with every other run, for picking the best of
+// several candidates in one go. Each run is walked once and each of
+// its benchmarks summarized once (mean and the moments the t-test
+// needs); the N x N %Diff and P value tables of all benchmarks are
+// then filled in parallel from the summaries. Benchmarks are matched
+// across runs by their path in the results tree, so runs need not
+// have the same shape; missing cells are NaN.
+//
+// Cell [i][j] compares run j against run i as baseline, exactly as a
+// specimen section of Compare with run i first would: a workload in
+// the runs decides the direction of every benchmark, as it does there.
+
+public class ComparisonMatrix {
+    // Benchmarks summarized per parallel task before splitting
+    private static final int LEAF_BENCHMARKS = 16;
+
+    private final String[] runs;
+    private final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+    // A benchmark or sub-benchmark in every run that has it
+    static class Benchmark {
+        final String key;
+        final String name;
+        final boolean isHigherBetter;
+        final Summary[] summaries;
+        double[] percentDiffs;
+        double[] pValues;
+        // Indices of runs, best first; runs without the benchmark last
+        Integer[] ranking;
+
+        Benchmark(String key, String name, boolean isHigherBetter, int numRuns) {
+            this.key = key;
+            this.name = name;
+            this.isHigherBetter = isHigherBetter;
+            this.summaries = new Summary[numRuns];
+        }
+    }
+
+    // What a comparison needs of one side. As in Compare, %Diff uses a
+    // benchmark's reported mean and the t-test its samples.
+    static class Summary {
+        final double mean;
+        final double sampleMean;
+        final double variance;
+        final int numValid;
+
+        Summary(double mean, DataSet samples) {
+            this.mean = mean;
+            this.sampleMean = samples.mean();
+            this.variance = samples.variance();
+            this.numValid = samples.numValidSamples();
+        }
+    }
+
+    /**
+     * Reads and summarizes the given runs through the comparison's
+     * loader, descending into the results trees in -r mode.
+     */
+    public ComparisonMatrix(Comparison comparison, ResultsLoader loader, List<String> runs,
+                            List<Results[]> results) throws IOException {
+        this.runs = runs.toArray(new String[runs.size()]);
+        Map<String, Benchmark> byKey = new LinkedHashMap<String, Benchmark>();
+        Results workload = Compare.findWorkload(results);
+        for (int run = 0; run < results.size(); run++) {
+            collect(comparison, loader, results.get(run), "", 0, run, workload, byKey);
+        }
+        benchmarks.addAll(byKey.values());
+    }
+
+    private void collect(Comparison comparison, ResultsLoader loader, Results[] level, String prefix,
+                         int depth, int run, Results workload, Map<String, Benchmark> byKey) throws IOException {
+        for (Results res : level) {
+            String key = prefix + res.getName();
+            if (!res.isWorkload()) {
+                boolean isHigherBetter = (workload != null) ? workload.isHigherBetter() : res.isHigherBetter();
+                lookup(byKey, key, res.getName(), isHigherBetter).summaries[run] =
+                        new Summary(res.getMean(), res.getScores());
+            }
+            if (comparison.isRecursive()) {
+                Subresults subres = loader.getCache().getSubresults(res.getDirectory(), false);
+                for (String subbenchmark : subres.benchmarkNames()) {
+                    DataSet data = subres.get(subbenchmark);
+                    lookup(byKey, key + "#" + subbenchmark, subbenchmark, res.isSubresultHigher(subbenchmark))
+                            .summaries[run] = new Summary(data.mean(), data);
+                }
+            }
+        }
+        if (depth < comparison.getMaxDepth() && comparison.hasChildren(level)) {
+            for (Results res : level) {
+                File[] dirs = loader.listResultDirectories(res.getDirectory());
+                collect(comparison, loader, loader.readResults(dirs), prefix + res.getName() + "/",
+                        depth + 1, run, workload, byKey);
+            }
+        }
+    }
+
+    private Benchmark lookup(Map<String, Benchmark> byKey, String key, String name, boolean isHigherBetter) {
+        Benchmark benchmark = byKey.get(key);
+        if (benchmark == null) {
+            benchmark = new Benchmark(key, name, isHigherBetter, runs.length);
+            byKey.put(key, benchmark);
+        }
+        return benchmark;
+    }
+
+    /**
+     * Fills the tables and rankings of all benchmarks on the given pool.
+     */
+    public void compute(ForkJoinPool pool) {
+        pool.invoke(new Fill(0, benchmarks.size()));
+    }
+
+    @SuppressWarnings("serial")
+    class Fill extends RecursiveAction {
+        private final int lo;
+        private final int hi;
+
+        Fill(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= LEAF_BENCHMARKS) {
+                for (int i = lo; i < hi; i++) {
+                    fill(benchmarks.get(i));
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Fill(lo, mid), new Fill(mid, hi));
+        }
+    }
+
+    private void fill(final Benchmark benchmark) {
+        int n = runs.length;
+        double[] diffs = new double[n * n];
+        double[] pValues = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            Summary base = benchmark.summaries[i];
+            for (int j = 0; j < n; j++) {
+                Summary spec = benchmark.summaries[j];
+                if (base == null || spec == null) {
+                    diffs[i * n + j] = Double.NaN;
+                    pValues[i * n + j] = Double.NaN;
+                } else if (i == j) {
+                    diffs[i * n + j] = 0;
+                    pValues[i * n + j] = Double.NaN;
+                } else {
+                    diffs[i * n + j] = CompareUtils.percentDiff(base.mean, spec.mean, benchmark.isHigherBetter);
+                    pValues[i * n + j] = WelchTTest.pValue(spec.sampleMean, base.sampleMean,
+                            spec.variance, base.variance, spec.numValid, base.numValid);
+                }
+            }
+        }
+        benchmark.percentDiffs = diffs;
+        benchmark.pValues = pValues;
+
+        Integer[] ranking = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            ranking[i] = i;
+        }
+        // Stable, so equal runs keep their command-line order
+        Arrays.sort(ranking, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                Summary sa = benchmark.summaries[a];
+                Summary sb = benchmark.summaries[b];
+                if (sa == null || sb == null) {
+                    return (sa == null ? 1 : 0) - (sb == null ? 1 : 0);
+                }
+                int c = Double.compare(sa.mean, sb.mean);
+                return benchmark.isHigherBetter ? -c : c;
+            }
+        });
+        benchmark.ranking = ranking;
+    }
+
+    // How many runs this one beats significantly
+    private int wins(Benchmark benchmark, int run) {
+        int n = runs.length;
+        int wins = 0;
+        for (int other = 0; other < n; other++) {
+            double diff = benchmark.percentDiffs[other * n + run];
+            if (diff > 0 && benchmark.pValues[other * n + run] < 0.01) {
+                wins++;
+            }
+        }
+        return wins;
+    }
+
+    private int rankOf(Benchmark benchmark, int run) {
+        for (int rank = 0; rank < runs.length; rank++) {
+            if (benchmark.ranking[rank] == run) {
+                return rank + 1;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Writes the tables and rankings in one of ReportWriter.FORMATS.
+     */
+    public void write(PrintWriter out, String format) {
+        if (format.equals("csv")) {
+            writeCsv(out);
+        } else if (format.equals("json")) {
+            writeJson(out);
+        } else {
+            writeText(out);
+        }
+        out.flush();
+    }
+
+    private void writeText(PrintWriter out) {
+        int n = runs.length;
+        int width = 10;
+        for (String run : runs) {
+            width = Math.max(width, run.length() + 2);
+        }
+        // Numbers line up with the run names above them; the column's
+        // last character is the significance marker
+        String label = "  %-" + width + "s";
+        String column = "%" + (width - 1) + "s ";
+        String cell = "%" + (width - 1) + ".2f%c";
+        for (Benchmark benchmark : benchmarks) {
+            printSeparator(out);
+            out.println(benchmark.key + (benchmark.isHigherBetter ? " (higher is better)" : " (lower is better)"));
+            out.println("  %Diff of column vs. row run, * if significant (P < 0.01)");
+            out.printf(label, "");
+            for (String run : runs) {
+                out.printf(column, run);
+            }
+            out.println();
+            for (int i = 0; i < n; i++) {
+                out.printf(label, runs[i]);
+                for (int j = 0; j < n; j++) {
+                    double diff = benchmark.percentDiffs[i * n + j];
+                    if (i == j || Double.isNaN(diff)) {
+                        out.printf(column, "-");
+                    } else {
+                        out.printf(cell, diff, (benchmark.pValues[i * n + j] < 0.01) ? '*' : ' ');
+                    }
+                }
+                out.println();
+            }
+            out.println();
+            out.printf("  Rank  %-" + width + "s        Mean  %%Diff best  Wins%n", "Run");
+            Summary best = benchmark.summaries[benchmark.ranking[0]];
+            for (int rank = 0; rank < n; rank++) {
+                int run = benchmark.ranking[rank];
+                Summary summary = benchmark.summaries[run];
+                if (summary == null) {
+                    continue;
+                }
+                double diff = (rank == 0) ? 0 :
+                        CompareUtils.percentDiff(best.mean, summary.mean, benchmark.isHigherBetter);
+                out.printf("  %4d  %-" + width + "s%12.2f%12.2f%6d%n", rank + 1, runs[run], summary.mean,
+                        diff, wins(benchmark, run));
+            }
+        }
+        printSeparator(out);
+    }
+
+    private static void printSeparator(PrintWriter out) {
+        char[] line = new char[80];
+        Arrays.fill(line, '=');
+        out.println(line);
+    }
+
+    // Long format, one line per ordered pair of runs
+    private void writeCsv(PrintWriter out) {
+        int n = runs.length;
+        out.println("benchmark,higher_is_better,baseline,specimen,percent_diff,p_value,significant," +
+                "specimen_mean,specimen_rank,specimen_wins");
+        for (Benchmark benchmark : benchmarks) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    Summary spec = benchmark.summaries[j];
+                    double p = benchmark.pValues[i * n + j];
+                    out.print(CsvReportWriter.quote(benchmark.key) + "," + benchmark.isHigherBetter + "," +
+                            CsvReportWriter.quote(runs[i]) + "," + CsvReportWriter.quote(runs[j]) + ",");
+                    out.print(csvNumber(benchmark.percentDiffs[i * n + j]) + "," + csvNumber(p) + ",");
+                    out.print((Double.isNaN(p) ? "" : String.valueOf(p < 0.01)) + ",");
+                    out.println((spec == null) ? ",," : csvNumber(spec.mean) + "," +
+                            rankOf(benchmark, j) + "," + wins(benchmark, j));
+                }
+            }
+        }
+    }
+
+    private static String csvNumber(double value) {
+        return Double.isNaN(value) ? "" : Double.toString(value);
+    }
+
+    // One object per benchmark with the dense tables as nested arrays
+    private void writeJson(PrintWriter out) {
+        int n = runs.length;
+        StringBuilder runList = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            runList.append(i > 0 ? "," : "").append(JsonLinesReportWriter.string(runs[i]));
+        }
+        runList.append(']');
+        for (Benchmark benchmark : benchmarks) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"benchmark\":").append(JsonLinesReportWriter.string(benchmark.key));
+            sb.append(",\"higherIsBetter\":").append(benchmark.isHigherBetter);
+            sb.append(",\"runs\":").append(runList);
+            sb.append(",\"percentDiff\":");
+            appendMatrix(sb, benchmark.percentDiffs, n);
+            sb.append(",\"pValue\":");
+            appendMatrix(sb, benchmark.pValues, n);
+            sb.append(",\"ranking\":[");
+            boolean first = true;
+            for (int rank = 0; rank < n; rank++) {
+                int run = benchmark.ranking[rank];
+                Summary summary = benchmark.summaries[run];
+                if (summary == null) {
+                    continue;
+                }
+                sb.append(first ? "" : ",");
+                sb.append("{\"run\":").append(JsonLinesReportWriter.string(runs[run]));
+                sb.append(",\"mean\":").append(JsonLinesReportWriter.number(summary.mean));
+                sb.append(",\"wins\":").append(wins(benchmark, run)).append('}');
+                first = false;
+            }
+            sb.append("]}");
+            out.println(sb);
+        }
+    }
+
+    private static void appendMatrix(StringBuilder sb, double[] values, int n) {
+        sb.append('[');
+        for (int i = 0; i < n; i++) {
+            sb.append(i > 0 ? ",[" : "[");
+            for (int j = 0; j < n; j++) {
+                sb.append(j > 0 ? "," : "").append(JsonLinesReportWriter.number(values[i * n + j]));
+            }
+            sb.append(']');
+        }
+        sb.append(']');
+    }
+}
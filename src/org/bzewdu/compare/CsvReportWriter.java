@@ -0,0 +1,88 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+
+import java.io.PrintWriter;
+
+// One header line, then one line per row. The first column names the
+// run the row belongs to; values that do not apply are left empty.
+
+public class CsvReportWriter extends ReportWriter {
+    private String section;
+
+    public CsvReportWriter(PrintWriter out, boolean intervals, boolean quantiles) {
+        super(out, intervals, quantiles);
+    }
+
+    public void startReport() {
+        out.print("run,workload,kind,benchmark,samples,mean,stddev,percent_diff,p_value,significant");
+        if (intervals) {
+            out.print(",mean_lower,mean_upper,percent_diff_lower,percent_diff_upper");
+        }
+        if (quantiles) {
+            for (String name : ReportRow.QUANTILE_NAMES) {
+                out.print("," + name);
+            }
+            for (String name : ReportRow.QUANTILE_NAMES) {
+                out.print(",percent_diff_" + name);
+            }
+        }
+        out.println();
+    }
+
+    public void startSection(Results[] results, Results workload, boolean baseline) {
+        section = quote(results[0].getDirectory().getPath()) + "," +
+                ((workload != null) ? quote(workload.getName()) : "");
+    }
+
+    protected void writeRow(ReportRow row) {
+        out.print(section);
+        out.print(',');
+        out.print(row.getKind().name().toLowerCase());
+        out.print(',');
+        out.print(quote(row.getName()));
+        out.print(',');
+        if (row.getKind() != ReportRow.Kind.WEIGHTED_GEOMEAN) {
+            out.print(row.getSamples());
+        }
+        number(row.getMean());
+        number(row.getStddev());
+        number(row.getPercentDiff());
+        number(row.getPValue());
+        out.print(',');
+        if (!Double.isNaN(row.getPValue())) {
+            out.print(row.isSignificant());
+        }
+        if (intervals) {
+            number(row.getMeanLower());
+            number(row.getMeanUpper());
+            number(row.getPercentDiffLower());
+            number(row.getPercentDiffUpper());
+        }
+        if (quantiles) {
+            for (int i = 0; i < ReportRow.QUANTILES.length; i++) {
+                number(row.getQuantile(i));
+            }
+            for (int i = 0; i < ReportRow.QUANTILES.length; i++) {
+                number(row.getQuantileDiff(i));
+            }
+        }
+        out.println();
+    }
+
+    private void number(double value) {
+        out.print(',');
+        if (!Double.isNaN(value)) {
+            out.print(value);
+        }
+    }
+
+    // RFC 4180: quote fields holding a separator, quote or line break
+    static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 &&
+                field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+}
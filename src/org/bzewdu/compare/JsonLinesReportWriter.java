@@ -0,0 +1,98 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+
+import java.io.PrintWriter;
+import java.util.Date;
+
+// One JSON object per line and per row. Values that do not apply are
+// null. In watch mode an {"updated": ...} line precedes the rows that
+// changed.
+
+public class JsonLinesReportWriter extends ReportWriter {
+    private String section;
+
+    public JsonLinesReportWriter(PrintWriter out, boolean intervals, boolean quantiles) {
+        super(out, intervals, quantiles);
+    }
+
+    public void startUpdate(Date date) {
+        out.println("{\"updated\":" + string(date.toString()) + "}");
+    }
+
+    public void startSection(Results[] results, Results workload, boolean baseline) {
+        section = "{\"run\":" + string(results[0].getDirectory().getPath()) +
+                ",\"workload\":" + ((workload != null) ? string(workload.getName()) : "null") +
+                ",\"baseline\":" + baseline;
+    }
+
+    protected void writeRow(ReportRow row) {
+        StringBuilder sb = new StringBuilder(section);
+        sb.append(",\"kind\":\"").append(row.getKind().name().toLowerCase()).append('"');
+        sb.append(",\"key\":").append(string(row.getKey()));
+        sb.append(",\"benchmark\":").append(string(row.getName()));
+        if (row.getKind() != ReportRow.Kind.WEIGHTED_GEOMEAN) {
+            sb.append(",\"samples\":").append(row.getSamples());
+        }
+        sb.append(",\"mean\":").append(number(row.getMean()));
+        sb.append(",\"stddev\":").append(number(row.getStddev()));
+        sb.append(",\"percentDiff\":").append(number(row.getPercentDiff()));
+        sb.append(",\"pValue\":").append(number(row.getPValue()));
+        if (!Double.isNaN(row.getPValue())) {
+            sb.append(",\"significant\":").append(row.isSignificant());
+        }
+        if (intervals) {
+            sb.append(",\"meanLower\":").append(number(row.getMeanLower()));
+            sb.append(",\"meanUpper\":").append(number(row.getMeanUpper()));
+            sb.append(",\"percentDiffLower\":").append(number(row.getPercentDiffLower()));
+            sb.append(",\"percentDiffUpper\":").append(number(row.getPercentDiffUpper()));
+        }
+        if (quantiles) {
+            for (int i = 0; i < ReportRow.QUANTILES.length; i++) {
+                String name = ReportRow.QUANTILE_NAMES[i];
+                sb.append(",\"").append(name).append("\":").append(number(row.getQuantile(i)));
+                sb.append(",\"percentDiff").append(name.toUpperCase()).append("\":")
+                        .append(number(row.getQuantileDiff(i)));
+            }
+        }
+        sb.append('}');
+        out.println(sb);
+    }
+
+    // JSON has no NaN or infinities
+    static String number(double value) {
+        return (Double.isNaN(value) || Double.isInfinite(value)) ? "null" : Double.toString(value);
+    }
+
+    static String string(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
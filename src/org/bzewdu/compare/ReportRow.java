@@ -0,0 +1,193 @@
+package org.bzewdu.compare;
+
+import java.util.Arrays;
+
+// One line of a comparison report: a benchmark, one of its
+// sub-benchmarks, or a workload's weighted geomean. Baseline rows have
+// no %Diff or P value (both are NaN).
+
+public class ReportRow {
+    public enum Kind { BENCHMARK, SUBBENCHMARK, WEIGHTED_GEOMEAN }
+
+    // The percentiles reported when requested
+    public static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    public static final String[] QUANTILE_NAMES = {"p50", "p99", "p99.9"};
+
+    private final Kind kind;
+    private final String key;
+    private final String name;
+    private final int samples;
+    private final double mean;
+    private final double stddev;
+    private final double percentDiff;
+    private final double pValue;
+    private final boolean baseline;
+    // Bootstrap confidence intervals, NaN unless requested
+    private double meanLower = Double.NaN;
+    private double meanUpper = Double.NaN;
+    private double diffLower = Double.NaN;
+    private double diffUpper = Double.NaN;
+    // Values at QUANTILES and their %Diff, null unless requested
+    private double[] quantiles;
+    private double[] quantileDiffs;
+
+    /**
+     * Creates a baseline row.
+     */
+    public ReportRow(Kind kind, String key, String name, int samples,
+                     double mean, double stddev) {
+        this(kind, key, name, samples, mean, stddev, Double.NaN, Double.NaN, true);
+    }
+
+    /**
+     * Creates a specimen row.
+     */
+    public ReportRow(Kind kind, String key, String name, int samples,
+                     double mean, double stddev, double percentDiff, double pValue) {
+        this(kind, key, name, samples, mean, stddev, percentDiff, pValue, false);
+    }
+
+    private ReportRow(Kind kind, String key, String name, int samples,
+                      double mean, double stddev, double percentDiff, double pValue,
+                      boolean baseline) {
+        this.baseline = baseline;
+        this.kind = kind;
+        this.key = key;
+        this.name = name;
+        this.samples = samples;
+        this.mean = mean;
+        this.stddev = stddev;
+        this.percentDiff = percentDiff;
+        this.pValue = pValue;
+    }
+
+    /**
+     * Returns a copy of this row carrying confidence intervals for its
+     * mean and, for specimen rows, its %Diff.
+     */
+    public ReportRow withIntervals(double meanLower, double meanUpper,
+                                   double diffLower, double diffUpper) {
+        ReportRow row = copy();
+        row.meanLower = meanLower;
+        row.meanUpper = meanUpper;
+        row.diffLower = diffLower;
+        row.diffUpper = diffUpper;
+        return row;
+    }
+
+    /**
+     * Returns a copy of this row carrying its values at QUANTILES and,
+     * for specimen rows, their %Diff against the baseline.
+     */
+    public ReportRow withQuantiles(double[] quantiles, double[] quantileDiffs) {
+        ReportRow row = copy();
+        row.quantiles = quantiles;
+        row.quantileDiffs = quantileDiffs;
+        return row;
+    }
+
+    private ReportRow copy() {
+        ReportRow row = new ReportRow(kind, key, name, samples, mean, stddev, percentDiff, pValue, baseline);
+        row.meanLower = meanLower;
+        row.meanUpper = meanUpper;
+        row.diffLower = diffLower;
+        row.diffUpper = diffUpper;
+        row.quantiles = quantiles;
+        row.quantileDiffs = quantileDiffs;
+        return row;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Identifies the row within its report section, e.g. to find the
+     * same row again after the results are re-read.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStddev() {
+        return stddev;
+    }
+
+    public double getPercentDiff() {
+        return percentDiff;
+    }
+
+    public double getPValue() {
+        return pValue;
+    }
+
+    public double getMeanLower() {
+        return meanLower;
+    }
+
+    public double getMeanUpper() {
+        return meanUpper;
+    }
+
+    public double getPercentDiffLower() {
+        return diffLower;
+    }
+
+    public double getPercentDiffUpper() {
+        return diffUpper;
+    }
+
+    /**
+     * Value at QUANTILES[i], NaN if not computed.
+     */
+    public double getQuantile(int i) {
+        return (quantiles != null) ? quantiles[i] : Double.NaN;
+    }
+
+    public double getQuantileDiff(int i) {
+        return (quantileDiffs != null) ? quantileDiffs[i] : Double.NaN;
+    }
+
+    public boolean isBaseline() {
+        return baseline;
+    }
+
+    public boolean isSignificant() {
+        return pValue < 0.01;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ReportRow)) {
+            return false;
+        }
+        ReportRow r = (ReportRow) o;
+        return kind == r.kind && baseline == r.baseline && key.equals(r.key) && name.equals(r.name) &&
+                samples == r.samples &&
+                Double.compare(mean, r.mean) == 0 &&
+                Double.compare(stddev, r.stddev) == 0 &&
+                Double.compare(percentDiff, r.percentDiff) == 0 &&
+                Double.compare(pValue, r.pValue) == 0 &&
+                Double.compare(meanLower, r.meanLower) == 0 &&
+                Double.compare(meanUpper, r.meanUpper) == 0 &&
+                Double.compare(diffLower, r.diffLower) == 0 &&
+                Double.compare(diffUpper, r.diffUpper) == 0 &&
+                Arrays.equals(quantiles, r.quantiles) &&
+                Arrays.equals(quantileDiffs, r.quantileDiffs);
+    }
+
+    public int hashCode() {
+        return key.hashCode() * 31 + name.hashCode();
+    }
+}
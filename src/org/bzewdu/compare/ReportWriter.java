@@ -0,0 +1,123 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.ExecutionStats;
+import org.bzewdu.util.Results;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+// Renders a comparison report. Sections are opened and closed around
+// the rows, which arrive one at a time as Comparison computes them.
+// Everything goes to a single buffered writer that is flushed only at
+// the end of a report or of a watch-mode update.
+
+public abstract class ReportWriter implements Comparison.RowSink {
+    public static final String[] FORMATS = {"text", "csv", "json"};
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    protected final PrintWriter out;
+    protected final boolean intervals;
+    protected final boolean quantiles;
+
+    protected ReportWriter(PrintWriter out, boolean intervals, boolean quantiles) {
+        this.out = out;
+        this.intervals = intervals;
+        this.quantiles = quantiles;
+    }
+
+    /**
+     * Returns the writer for one of FORMATS, buffering in front of the
+     * given stream. intervals and quantiles add the columns for the
+     * corresponding optional ReportRow statistics.
+     */
+    public static ReportWriter create(String format, PrintStream stream, boolean intervals, boolean quantiles) {
+        return create(format, stream, Charset.defaultCharset(), intervals, quantiles);
+    }
+
+    public static ReportWriter create(String format, OutputStream stream, Charset charset,
+                                      boolean intervals, boolean quantiles) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream, charset), BUFFER_SIZE));
+        if (format.equals("text")) {
+            return new TextReportWriter(out, intervals, quantiles);
+        } else if (format.equals("csv")) {
+            return new CsvReportWriter(out, intervals, quantiles);
+        } else if (format.equals("json")) {
+            return new JsonLinesReportWriter(out, intervals, quantiles);
+        }
+        throw new IllegalArgumentException("Unknown report format " + format);
+    }
+
+    /**
+     * Writes out what is buffered, e.g. before giving up on a report.
+     */
+    public void flush() {
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.OUTPUT, null);
+        try {
+            out.flush();
+        } finally {
+            timer.end();
+        }
+    }
+
+    /**
+     * Copies in a section that a writer of the same format wrote
+     * elsewhere, e.g. one spooled to a file while other sections were
+     * being written.
+     */
+    void append(Reader in) throws IOException {
+        char[] buf = new char[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    public void startReport() {
+    }
+
+    public void endReport() {
+        flush();
+    }
+
+    /**
+     * Starts the rows of a watch-mode update, which are only those
+     * that changed.
+     */
+    public void startUpdate(Date date) {
+    }
+
+    public void endUpdate() {
+        flush();
+    }
+
+    /**
+     * Starts the section of one run; the first run is the baseline.
+     */
+    public abstract void startSection(Results[] results, Results workload, boolean baseline);
+
+    /**
+     * Ends a section; haveWorkload closes the weighted geomeans even if
+     * the section had none.
+     */
+    public void endSection(boolean haveWorkload) {
+    }
+
+    public final void row(ReportRow row) {
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.OUTPUT, row.getKey());
+        try {
+            writeRow(row);
+        } finally {
+            timer.end(1);
+        }
+    }
+
+    protected abstract void writeRow(ReportRow row);
+}
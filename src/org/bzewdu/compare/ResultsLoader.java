@@ -0,0 +1,176 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+import org.bzewdu.util.ResultsArchive;
+import org.bzewdu.util.ResultsCache;
+import org.bzewdu.util.ResultsIndex;
+import org.bzewdu.util.ResultsManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Finds and parses the results.* directories of one or more runs. With
+// more than one thread, every directory of every run is parsed
+// concurrently on a bounded pool; results always come back in the
+// same sorted order as the serial path. Listings and parsed Results
+// go through a ResultsCache, so directories visited again are not
+// re-read.
+
+public class ResultsLoader {
+    private final ExecutorService executor;
+    private final ResultsCache cache;
+
+    /**
+     * Creates a loader using the given number of threads. A value of
+     * 1 or less parses everything on the calling thread.
+     */
+    public ResultsLoader(int numThreads) {
+        this(numThreads, new ResultsCache(0));
+    }
+
+    public ResultsLoader(int numThreads, ResultsCache cache) {
+        this.cache = cache;
+        if (numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Results Loader " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    public boolean isConcurrent() {
+        return executor != null;
+    }
+
+    /**
+     * Reads the results directories of every given run, one
+     * Results[] per run, in command-line order.
+     */
+    public ArrayList<Results[]> readRuns(List<String> runDirs) throws IOException {
+        ArrayList<Results[]> results = new ArrayList<Results[]>();
+        if (executor == null) {
+            for (String dir : runDirs) {
+                results.add(readResults(listRun(new File(dir))));
+            }
+            return results;
+        }
+
+        List<Future<File[]>> listings = new ArrayList<Future<File[]>>();
+        for (final String dir : runDirs) {
+            listings.add(executor.submit(new Callable<File[]>() {
+                public File[] call() throws IOException {
+                    return listRun(new File(dir));
+                }
+            }));
+        }
+        List<File[]> dirs = new ArrayList<File[]>();
+        for (int i = 0; i < listings.size(); i++) {
+            dirs.add(get(listings.get(i), new File(runDirs.get(i))));
+        }
+        // Submit everything before waiting on anything so that all
+        // runs are parsed at the same time
+        List<List<Future<Results>>> parses = new ArrayList<List<Future<Results>>>();
+        for (File[] runDir : dirs) {
+            parses.add(submitAll(runDir));
+        }
+        for (int i = 0; i < dirs.size(); i++) {
+            results.add(collect(dirs.get(i), parses.get(i)));
+        }
+        return results;
+    }
+
+    public ResultsCache getCache() {
+        return cache;
+    }
+
+    public File[] listResultDirectories(File baseDir) throws IOException {
+        return cache.getResultDirectories(baseDir);
+    }
+
+    private File[] listRun(File runDir) throws IOException {
+        openRun(runDir);
+        return listResultDirectories(runDir);
+    }
+
+    // Picks up the run's binary index, if it has one, and scans its
+    // tree before anything in it is read, unless it is unchanged since
+    // the last scan. Runs in archives are read from them whole.
+    static void openRun(File runDir) throws IOException {
+        File archive = ResultsArchive.findArchive(runDir);
+        if (archive != null) {
+            ResultsArchive.open(archive);
+            return;
+        }
+        ResultsIndex.open(runDir);
+        ResultsManifest.scanIfChanged(runDir);
+    }
+
+    public Results[] readResults(File[] resultDirs) throws IOException {
+        if (executor == null) {
+            Results[] results = new Results[resultDirs.length];
+            for (int i = 0; i < resultDirs.length; i++) {
+                results[i] = cache.getResults(resultDirs[i]);
+            }
+            return results;
+        }
+        return collect(resultDirs, submitAll(resultDirs));
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private List<Future<Results>> submitAll(File[] resultDirs) {
+        List<Future<Results>> futures = new ArrayList<Future<Results>>(resultDirs.length);
+        for (final File dir : resultDirs) {
+            futures.add(executor.submit(new Callable<Results>() {
+                public Results call() throws IOException {
+                    return cache.getResults(dir);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private Results[] collect(File[] resultDirs, List<Future<Results>> futures) throws IOException {
+        Results[] results = new Results[resultDirs.length];
+        for (int i = 0; i < resultDirs.length; i++) {
+            results[i] = get(futures.get(i), resultDirs[i]);
+        }
+        return results;
+    }
+
+    private static <T> T get(Future<T> future, File path) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException("Interrupted while reading " + path).initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                // Already names the offending file
+                throw (IOException) cause;
+            }
+            throw (IOException) new IOException("Error reading results in " + path).initCause(cause);
+        }
+    }
+}
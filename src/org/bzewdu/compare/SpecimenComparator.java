@@ -0,0 +1,91 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Computes the specimen sections of a report concurrently, one task
+// per specimen run. All tasks share the one parsed baseline: its
+// Results, and the Subresults and child Results they reach through the
+// ResultsCache, are only read once parsed. Each section is written
+// once it and all sections before it are complete, so the report comes
+// out in command-line order.
+
+public class SpecimenComparator {
+    private final Comparison comparison;
+    private final ExecutorService executor;
+
+    public SpecimenComparator(Comparison comparison, int numThreads) {
+        this.comparison = comparison;
+        executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Specimen Comparator " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Writes one section per specimen run, comparing each against
+     * baseline.
+     */
+    public void writeSections(final Results[] baseline, List<Results[]> specimens, final Results workload,
+                              ReportWriter report) throws IOException {
+        List<Future<List<ReportRow>>> futures = new ArrayList<Future<List<ReportRow>>>(specimens.size());
+        for (final Results[] specimen : specimens) {
+            futures.add(executor.submit(new Callable<List<ReportRow>>() {
+                public List<ReportRow> call() throws IOException {
+                    return comparison.specimenRows(baseline, specimen, workload);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < specimens.size(); i++) {
+                Results[] specimen = specimens.get(i);
+                List<ReportRow> rows = get(futures.get(i), specimen);
+                report.startSection(specimen, workload, false);
+                for (ReportRow row : rows) {
+                    report.row(row);
+                }
+                report.endSection(workload != null);
+            }
+        } finally {
+            for (Future<List<ReportRow>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static <T> T get(Future<T> future, Results[] specimen) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException("Interrupted while comparing " +
+                    specimen[0].getDirectory().getParent()).initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw (IOException) new IOException("Error comparing " +
+                    specimen[0].getDirectory().getParent()).initCause(cause);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+import org.bzewdu.util.Subresults;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+// Writes the same report as Compare, holding only one benchmark of
+// each run in memory at a time, for trees too large to keep parsed.
+// All runs are walked in lockstep, benchmark by benchmark in the usual
+// order: the benchmark's Results and Subresults are read from every
+// run, its baseline row and specimen rows computed and written, and
+// all of it dropped before the next benchmark is read. Nothing goes
+// through the ResultsCache.
+//
+// The baseline section is written to the report directly; every
+// specimen section is spooled to a temporary file by a writer of the
+// same format and copied into the report after the walk, so the report
+// comes out section by section as usual.
+
+public class StreamingComparison {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Comparison comparison;
+    private final String format;
+    private final boolean intervals;
+    private final boolean quantiles;
+    private final double compression;
+
+    private Results workload;
+    private ReportWriter[] sections;
+
+    /**
+     * format, intervals and quantiles must be those the report was
+     * created with; compression is the ResultsCache's sketch
+     * compression.
+     */
+    public StreamingComparison(Comparison comparison, String format, boolean intervals, boolean quantiles,
+                               double compression) {
+        this.comparison = comparison;
+        this.format = format;
+        this.intervals = intervals;
+        this.quantiles = quantiles;
+        this.compression = compression;
+    }
+
+    /**
+     * Writes the whole report for the given runs, the first of which
+     * is the baseline.
+     */
+    public void writeReport(List<String> runs, ReportWriter report) throws IOException {
+        int numRuns = runs.size();
+        File[][] top = new File[numRuns][];
+        for (int run = 0; run < numRuns; run++) {
+            File runDir = new File(runs.get(run));
+            ResultsLoader.openRun(runDir);
+            top[run] = Results.listResultDirectories(runDir);
+            if (top[run].length == 0) {
+                throw new IOException("No results found in " + runDir);
+            }
+        }
+
+        // The sections are headed by the workload, if any run has one,
+        // so find it first. As in Compare, the last run's wins.
+        Results[] firsts = new Results[numRuns];
+        Results[] workloads = new Results[numRuns];
+        for (int run = 0; run < numRuns; run++) {
+            for (File dir : top[run]) {
+                Results res = Results.load(dir);
+                if (firsts[run] == null) {
+                    firsts[run] = res;
+                }
+                if (res.isWorkload()) {
+                    workloads[run] = res;
+                    workload = res;
+                    break;
+                }
+            }
+        }
+
+        sections = new ReportWriter[numRuns];
+        sections[0] = report;
+        File[] spools = new File[numRuns];
+        FileOutputStream[] streams = new FileOutputStream[numRuns];
+        try {
+            for (int run = 1; run < numRuns; run++) {
+                spools[run] = File.createTempFile("compare", ".section");
+                streams[run] = new FileOutputStream(spools[run]);
+                sections[run] = ReportWriter.create(format, streams[run], UTF8, intervals, quantiles);
+            }
+
+            report.startReport();
+            for (int run = 0; run < numRuns; run++) {
+                sections[run].startSection(new Results[] {firsts[run]}, workload, run == 0);
+            }
+            firsts = null;
+            walk(top, 0);
+            if (workload != null) {
+                report.row(Comparison.baselineGeomeanRow(workload));
+                for (int run = 1; run < numRuns; run++) {
+                    if (workloads[run] != null) {
+                        sections[run].row(Comparison.specimenGeomeanRow(workload, workloads[run]));
+                    }
+                }
+            }
+            for (int run = 0; run < numRuns; run++) {
+                sections[run].endSection(workload != null);
+            }
+
+            for (int run = 1; run < numRuns; run++) {
+                sections[run].flush();
+                streams[run].close();
+                streams[run] = null;
+                Reader in = new InputStreamReader(new FileInputStream(spools[run]), UTF8);
+                try {
+                    report.append(in);
+                } finally {
+                    in.close();
+                }
+            }
+            report.endReport();
+        } finally {
+            for (int run = 1; run < numRuns; run++) {
+                if (streams[run] != null) {
+                    streams[run].close();
+                }
+                if (spools[run] != null) {
+                    spools[run].delete();
+                }
+            }
+            sections = null;
+        }
+    }
+
+    // One level of the trees: the i-th directories of all runs hold the
+    // same benchmark
+    private void walk(File[][] dirs, int depth) throws IOException {
+        int numRuns = dirs.length;
+        int numBenchmarks = dirs[0].length;
+        for (int run = 1; run < numRuns; run++) {
+            if (dirs[run].length != numBenchmarks) {
+                throw new IOException("Found " + dirs[run].length + " results directories in run " + (run + 1) +
+                        " where the baseline has " + numBenchmarks +
+                        ((numBenchmarks > 0) ? " in " + dirs[0][0].getParent() : ""));
+            }
+        }
+
+        boolean hasChildren = false;
+        for (int i = 0; i < numBenchmarks; i++) {
+            Results baseline = Results.load(dirs[0][i]);
+            Subresults baselineSubres = comparison.isRecursive() ?
+                    Subresults.load(baseline.getDirectory(), false, compression) : null;
+            if (i == 0) {
+                hasChildren = comparison.hasChildren(new Results[] {baseline});
+            }
+            emit(sections[0], comparison.baselineGroup(baseline, baselineSubres));
+            for (int run = 1; run < numRuns; run++) {
+                Results specimen = Results.load(dirs[run][i]);
+                Subresults specimenSubres = comparison.isRecursive() ?
+                        Subresults.load(specimen.getDirectory(), false, compression) : null;
+                emit(sections[run], comparison.specimenGroup(baseline, specimen,
+                        baselineSubres, specimenSubres, workload));
+            }
+        }
+
+        if (workload == null && depth < comparison.getMaxDepth() && hasChildren) {
+            for (int i = 0; i < numBenchmarks; i++) {
+                File[][] children = new File[numRuns][];
+                for (int run = 0; run < numRuns; run++) {
+                    children[run] = Results.listResultDirectories(dirs[run][i]);
+                }
+                walk(children, depth + 1);
+            }
+        }
+    }
+
+    private static void emit(ReportWriter section, List<ReportRow> rows) {
+        for (ReportRow row : rows) {
+            section.row(row);
+        }
+    }
+}
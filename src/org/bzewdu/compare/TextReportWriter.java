@@ -0,0 +1,132 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Date;
+
+// The fixed-width table Compare has always printed
+
+public class TextReportWriter extends ReportWriter {
+    private static final String SEPARATOR = repeat('=', 80);
+    private static final String LINE = "  " + repeat('-', 78);
+    // Specimen rows compare this one of ReportRow.QUANTILES, p99
+    private static final int DIFF_QUANTILE = 1;
+
+    private boolean inGeomeans;
+
+    public TextReportWriter(PrintWriter out, boolean intervals, boolean quantiles) {
+        super(out, intervals, quantiles);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    public void endReport() {
+        out.println(SEPARATOR);
+        super.endReport();
+    }
+
+    public void startUpdate(Date date) {
+        out.println(SEPARATOR);
+        out.println("Updated " + date);
+    }
+
+    public void endUpdate() {
+        out.println(SEPARATOR);
+        super.endUpdate();
+    }
+
+    public void startSection(Results[] results, Results workload, boolean baseline) {
+        out.println(SEPARATOR);
+        out.print(results[0].getDirectory());
+        if (workload != null) {
+            out.println(": " + workload.getName());
+        } else {
+            out.println();
+        }
+        if (baseline) {
+            // Column number      2                   22             37       46                65
+            out.println("  Benchmark           Samples        Mean     Stdev" +
+                    (intervals ? "     Mean lo   Mean hi" : "") +
+                    (quantiles ? quantileHeading() : ""));//        Geomean Weight
+        } else {
+            // Column number      2                   22             37       46        54         63   67
+            out.println("  Benchmark           Samples        Mean     Stdev     %Diff     P  Significant" +
+                    (intervals ? "     Mean lo   Mean hi  %Diff lo  %Diff hi" : "") +
+                    (quantiles ? quantileHeading() + String.format("%10s",
+                            "%Diff " + ReportRow.QUANTILE_NAMES[DIFF_QUANTILE]) : ""));
+        }
+        inGeomeans = false;
+    }
+
+    private static String quantileHeading() {
+        StringBuilder sb = new StringBuilder();
+        for (String name : ReportRow.QUANTILE_NAMES) {
+            sb.append(String.format("%10s", name));
+        }
+        return sb.toString();
+    }
+
+    // The weighted geomeans of a workload come last, below a line
+    public void endSection(boolean haveWorkload) {
+        if (haveWorkload && !inGeomeans) {
+            out.println(LINE);
+        }
+    }
+
+    protected void writeRow(ReportRow row) {
+        if (row.getKind() == ReportRow.Kind.WEIGHTED_GEOMEAN && !inGeomeans) {
+            out.println(LINE);
+            inGeomeans = true;
+        }
+        switch (row.getKind()) {
+            case BENCHMARK:
+                if (row.isBaseline()) {
+                    out.printf("  %-24s%3d%12.2f%10.2f",
+                            row.getName(), row.getSamples(), row.getMean(), row.getStddev());
+                } else {
+                    out.printf("  %-24s%3d%12.2f%10.2f%10.2f%6.3f%13s",
+                            row.getName(), row.getSamples(), row.getMean(), row.getStddev(),
+                            row.getPercentDiff(), row.getPValue(), row.isSignificant() ? "Yes" : "*");
+                }
+                break;
+            case SUBBENCHMARK:
+                if (row.isBaseline()) {
+                    out.printf("    %-22s%3d%12.2f%10.2f",
+                            row.getName(), row.getSamples(), row.getMean(), row.getStddev());
+                } else {
+                    out.printf("    %-22s%3d%12.2f%10.2f%10.2f%6.3f%13s",
+                            row.getName(), row.getSamples(), row.getMean(), row.getStddev(),
+                            row.getPercentDiff(), row.getPValue(), row.isSignificant() ? "Yes" : "*");
+                }
+                break;
+            case WEIGHTED_GEOMEAN:
+                if (row.isBaseline()) {
+                    out.printf("  Weighted Geomean%22.2f", row.getMean());
+                } else {
+                    out.printf("  Weighted Geomean%23.2f%10.2f", row.getMean(), row.getPercentDiff());
+                }
+                break;
+        }
+        if (intervals && row.getKind() != ReportRow.Kind.WEIGHTED_GEOMEAN) {
+            out.printf("%12.2f%10.2f", row.getMeanLower(), row.getMeanUpper());
+            if (!row.isBaseline()) {
+                out.printf("%10.2f%10.2f", row.getPercentDiffLower(), row.getPercentDiffUpper());
+            }
+        }
+        if (quantiles && row.getKind() != ReportRow.Kind.WEIGHTED_GEOMEAN) {
+            for (int i = 0; i < ReportRow.QUANTILES.length; i++) {
+                out.printf("%10.2f", row.getQuantile(i));
+            }
+            if (!row.isBaseline()) {
+                out.printf("%10.2f", row.getQuantileDiff(DIFF_QUANTILE));
+            }
+        }
+        out.println();
+    }
+}
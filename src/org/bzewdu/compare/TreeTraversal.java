@@ -0,0 +1,145 @@
+package org.bzewdu.compare;
+
+import org.bzewdu.util.Results;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Walks a baseline results tree, and a specimen tree alongside it, on a
+// ForkJoinPool for Comparison's -r mode. Every level of the tree forks
+// one task per benchmark for its rows and one per benchmark for the
+// level below, so listing, parsing and statistics of the whole tree
+// proceed in parallel with idle workers stealing from busy ones. The
+// caller then joins the tasks in the same depth-first order the
+// sequential walk visits them, so rows come out in exactly that order,
+// each as soon as it and everything before it are done.
+
+class TreeTraversal {
+    private final Comparison comparison;
+    private final ResultsLoader loader;
+    private final ForkJoinPool pool;
+
+    TreeTraversal(Comparison comparison, ResultsLoader loader, ForkJoinPool pool) {
+        this.comparison = comparison;
+        this.loader = loader;
+        this.pool = pool;
+    }
+
+    /**
+     * Emits the rows of the given benchmarks and, if descend is set,
+     * of the trees below them. specimen is null for the baseline
+     * section.
+     */
+    void run(Results[] baseline, Results[] specimen, Results workload, boolean descend,
+             Comparison.RowSink sink) throws IOException {
+        Level root = new Level(null, null, workload, descend, 0);
+        root.baseline = baseline;
+        root.specimen = specimen;
+        pool.execute(root);
+        try {
+            root.emit(sink);
+        } catch (RuntimeException e) {
+            // Tasks carry IOExceptions out wrapped; join() may wrap them
+            // once more when rethrowing in this thread
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) t).getCause();
+                }
+            }
+            throw e;
+        }
+    }
+
+    // One level of the tree: the results.* directories below a pair of
+    // parent directories, or the runs themselves at the top
+    @SuppressWarnings("serial")
+    class Level extends RecursiveAction {
+        private final File baselineDir;
+        private final File specimenDir;
+        private final Results workload;
+        private final boolean descend;
+        private final int depth;
+        Results[] baseline;
+        Results[] specimen;
+        private final List<ForkJoinTask<List<ReportRow>>> groups = new ArrayList<ForkJoinTask<List<ReportRow>>>();
+        private final List<Level> children = new ArrayList<Level>();
+
+        Level(File baselineDir, File specimenDir, Results workload, boolean descend, int depth) {
+            this.baselineDir = baselineDir;
+            this.specimenDir = specimenDir;
+            this.workload = workload;
+            this.descend = descend;
+            this.depth = depth;
+        }
+
+        protected void compute() {
+            try {
+                if (baseline == null) {
+                    baseline = loader.readResults(loader.listResultDirectories(baselineDir));
+                    if (specimenDir != null) {
+                        specimen = loader.readResults(loader.listResultDirectories(specimenDir));
+                    }
+                }
+                for (int i = 0; i < baseline.length; i++) {
+                    groups.add(new Group(baseline[i], (specimen != null) ? specimen[i] : null, workload).fork());
+                }
+                if (descend && depth < comparison.getMaxDepth() && comparison.hasChildren(baseline)) {
+                    for (int i = 0; i < baseline.length; i++) {
+                        Level child = new Level(baseline[i].getDirectory(),
+                                (specimen != null) ? specimen[i].getDirectory() : null,
+                                workload, descend, depth + 1);
+                        children.add(child);
+                        child.fork();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Must only be called once this level's compute() was scheduled
+        void emit(Comparison.RowSink sink) {
+            join();
+            for (ForkJoinTask<List<ReportRow>> group : groups) {
+                for (ReportRow row : group.join()) {
+                    sink.row(row);
+                }
+            }
+            for (Level child : children) {
+                child.emit(sink);
+            }
+        }
+    }
+
+    // The rows of one benchmark, or of one benchmark pair
+    @SuppressWarnings("serial")
+    class Group extends RecursiveTask<List<ReportRow>> {
+        private final Results baseline;
+        private final Results specimen;
+        private final Results workload;
+
+        Group(Results baseline, Results specimen, Results workload) {
+            this.baseline = baseline;
+            this.specimen = specimen;
+            this.workload = workload;
+        }
+
+        protected List<ReportRow> compute() {
+            try {
+                if (specimen == null) {
+                    return comparison.baselineGroup(baseline);
+                }
+                return comparison.specimenGroup(baseline, specimen, workload);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
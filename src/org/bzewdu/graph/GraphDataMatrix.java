@@ -0,0 +1,90 @@
+package org.bzewdu.graph;
+
+import org.bzewdu.stats.DataSet;
+import org.bzewdu.util.Subresults;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The data of all graphs of a suite: a benchmark x experiment matrix of
+// means and standard deviations, read out of the Subresults once when
+// it is built and not changed afterwards. Its GraphDataModels are rows
+// of the matrix, so reading a data point is an array read. To show
+// more data, build a new matrix and hand its models to the panels.
+
+public class GraphDataMatrix {
+    private final String[] benchmarkNames;
+    private final String[] experimentNames;
+    // By benchmark, then experiment
+    private final double[] means;
+    private final double[] stddevs;
+
+    /**
+     * Builds the matrix for the benchmarks of the first experiment's
+     * subresults. Benchmarks an experiment does not have, and
+     * experiments whose subresults are null, e.g. not loaded yet, have
+     * mean and stddev 0.
+     */
+    public GraphDataMatrix(String[] experimentNames, Subresults[] subresults) {
+        this.experimentNames = experimentNames.clone();
+        benchmarkNames = subresults[0].benchmarkNames().toArray(new String[0]);
+        int numExperiments = experimentNames.length;
+        means = new double[benchmarkNames.length * numExperiments];
+        stddevs = new double[benchmarkNames.length * numExperiments];
+        for (int b = 0; b < benchmarkNames.length; b++) {
+            for (int e = 0; e < numExperiments; e++) {
+                DataSet datum = (subresults[e] == null) ? null : subresults[e].get(benchmarkNames[b]);
+                if (datum != null) {
+                    means[b * numExperiments + e] = datum.mean();
+                    stddevs[b * numExperiments + e] = datum.stddev();
+                }
+            }
+        }
+    }
+
+    public int getNumBenchmarks() {
+        return benchmarkNames.length;
+    }
+
+    /**
+     * One model per benchmark, in the order of the first experiment's
+     * subresults.
+     */
+    public List<GraphDataModel> models() {
+        List<GraphDataModel> models = new ArrayList<GraphDataModel>(benchmarkNames.length);
+        for (int b = 0; b < benchmarkNames.length; b++) {
+            models.add(new Row(b));
+        }
+        return models;
+    }
+
+    class Row implements GraphDataModel {
+        private final int benchmark;
+        private final int offset;
+
+        Row(int benchmark) {
+            this.benchmark = benchmark;
+            offset = benchmark * experimentNames.length;
+        }
+
+        public String getTitle() {
+            return benchmarkNames[benchmark];
+        }
+
+        public int getNumDataPoints() {
+            return experimentNames.length;
+        }
+
+        public double getDataPoint(int i) {
+            return means[offset + i];
+        }
+
+        public double getDataPointStddev(int i) {
+            return stddevs[offset + i];
+        }
+
+        public String getDataPointTitle(int i) {
+            return experimentNames[i];
+        }
+    }
+}
@@ -20,6 +20,11 @@ public interface GraphDataModel {
      */
     public double getDataPoint(int i);
 
+    /**
+     * Get the standard deviation of the i'th data point, 0 if unknown
+     */
+    public double getDataPointStddev(int i);
+
     /**
      * Get the i'th data point's title
      */
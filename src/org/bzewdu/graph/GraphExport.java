@@ -0,0 +1,229 @@
+package org.bzewdu.graph;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Writes the charts GraphRW would show to files instead, one PNG or SVG
+// per benchmark, plus an index.html that shows them all with their
+// values. Nothing is put on screen, so this works with
+// java.awt.headless=true, e.g. on build machines without a display.
+//
+// Every chart is drawn by its own GraphPanel, the same way the panel
+// draws itself, and the charts are drawn in parallel on one thread per
+// core.
+
+public class GraphExport {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final String format;
+    private final int width;
+    private final int height;
+
+    /**
+     * format is "png" or "svg"; width and height are those of each
+     * chart in pixels.
+     */
+    public GraphExport(File directory, String format, int width, int height) {
+        if (!format.equals("png") && !format.equals("svg")) {
+            throw new IllegalArgumentException("Unknown format " + format + ", expected png or svg");
+        }
+        this.directory = directory;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Writes one chart per data model and the index page, headed by
+     * the given title, into the directory.
+     */
+    public void export(String title, List<GraphDataModel> data) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        String[] names = new String[data.size()];
+        List<Callable<Void>> charts = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fileName(i, data.get(i).getTitle());
+            final GraphPanel panel = new GraphPanel();
+            panel.setData(data.get(i));
+            final File file = new File(directory, names[i]);
+            charts.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    write(panel, file);
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (Future<Void> chart : executor.invokeAll(charts)) {
+                chart.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        writeIndex(title, data, names);
+    }
+
+    // Benchmark names may hold anything; the index keeps them apart
+    private String fileName(int index, String title) {
+        return String.format("%03d-%s.%s", index, title.replaceAll("[^A-Za-z0-9._-]", "_"), format);
+    }
+
+    private void write(GraphPanel panel, File file) throws IOException {
+        if (format.equals("png")) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            panel.paintGraph(new GraphPanel.GraphicsSurface(g), width, height);
+            g.dispose();
+            if (!ImageIO.write(image, "png", file)) {
+                throw new IOException("No PNG writer available");
+            }
+        } else {
+            SvgSurface svg = new SvgSurface();
+            panel.paintGraph(svg, width, height);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+            try {
+                out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                out.println("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" +
+                        height + "\" viewBox=\"0 0 " + width + " " + height + "\">");
+                out.print(svg.body);
+                out.println("</svg>");
+            } finally {
+                out.close();
+            }
+            if (out.checkError()) {
+                throw new IOException("Could not write " + file);
+            }
+        }
+    }
+
+    // Draws into the body of an SVG document. Strings are placed as
+    // GraphicsSurface places them, measured with the same font, but
+    // anchored at their middle so that they stay centered in whatever
+    // font the viewer substitutes.
+    static class SvgSurface implements GraphPanel.Surface {
+        private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
+
+        final StringBuilder body = new StringBuilder();
+
+        public void fillRect(Color color, int x, int y, int width, int height) {
+            body.append("<rect x=\"").append(x).append("\" y=\"").append(y)
+                    .append("\" width=\"").append(width).append("\" height=\"").append(height)
+                    .append("\" fill=\"").append(rgb(color)).append("\"/>\n");
+        }
+
+        public void drawCenteredString(Color color, Font font, String str, int centerX, int centerY) {
+            Rectangle2D bounds = font.getStringBounds(str, FRC);
+            int startY = (int) (centerY + (bounds.getHeight() / 2));
+            body.append("<text x=\"").append(centerX).append("\" y=\"").append(startY)
+                    .append("\" text-anchor=\"middle\" font-family=\"").append(font.getFamily())
+                    .append(", sans-serif\" font-size=\"").append(font.getSize2D())
+                    .append("\" fill=\"").append(rgb(color)).append("\">")
+                    .append(escape(str)).append("</text>\n");
+        }
+
+        private static String rgb(Color color) {
+            return String.format("#%06x", color.getRGB() & 0xffffff);
+        }
+    }
+
+    private void writeIndex(String title, List<GraphDataModel> data, String[] names) throws IOException {
+        File file = new File(directory, "index.html");
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+        try {
+            out.println("<!DOCTYPE html>");
+            out.println("<html>");
+            out.println("<head>");
+            out.println("<meta charset=\"UTF-8\">");
+            out.println("<title>" + escape(title) + "</title>");
+            out.println("<style>");
+            out.println("body { background: black; color: white; font-family: sans-serif; }");
+            out.println("figure { display: inline-block; vertical-align: top; margin: 8px; }");
+            out.println("table { border-collapse: collapse; font-size: small; }");
+            out.println("td { padding: 0 4px; text-align: right; }");
+            out.println("td:first-child { text-align: left; }");
+            out.println("</style>");
+            out.println("</head>");
+            out.println("<body>");
+            out.println("<h1>" + escape(title) + "</h1>");
+            for (int i = 0; i < names.length; i++) {
+                GraphDataModel model = data.get(i);
+                out.println("<figure>");
+                out.println("<a href=\"" + escape(names[i]) + "\"><img src=\"" + escape(names[i]) +
+                        "\" width=\"" + width + "\" height=\"" + height + "\" alt=\"" +
+                        escape(model.getTitle()) + "\"></a>");
+                out.println("<figcaption>");
+                out.println("<table>");
+                for (int j = 0; j < model.getNumDataPoints(); j++) {
+                    out.printf("<tr><td>%s</td><td>%.2f</td><td>&plusmn; %.2f</td></tr>%n",
+                            escape(model.getDataPointTitle(j)), model.getDataPoint(j),
+                            model.getDataPointStddev(j));
+                }
+                out.println("</table>");
+                out.println("</figcaption>");
+                out.println("</figure>");
+            }
+            out.println("</body>");
+            out.println("</html>");
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
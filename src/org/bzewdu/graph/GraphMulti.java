@@ -2,6 +2,8 @@ package org.bzewdu.graph;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
@@ -13,11 +15,22 @@ import java.util.List;
 
 // Lays out multiple GraphPanels using a ZoomableLayout in a given
 // Container.
+//
+// Zooms are animated by a javax.swing.Timer firing at TARGET_FPS, so
+// the animation and all of its state live on the event dispatch
+// thread. Each frame places the view where it should be at that
+// moment, so frames the EDT is too busy for are skipped (the Timer
+// coalesces them) and a zoom always takes ZOOM_MILLIS.
 
 public class GraphMulti {
+    private static final int TARGET_FPS = 60;
+    private static final long ZOOM_MILLIS = 500;
+
     private ZoomableLayout zoom;
     private Container parent;
     private java.util.List<GraphPanel> panels = new ArrayList<GraphPanel>();
+    // Panels per line of the current grid, 0 before the first layout
+    private int gridPerLine;
 
     public GraphMulti(Container parent,
                       List<GraphDataModel> data) {
@@ -42,20 +55,19 @@ public class GraphMulti {
         layout();
         parent.addComponentListener(new ComponentAdapter() {
             public void componentResized(ComponentEvent e) {
-                relayout();
+                layout();
             }
         });
-        Thread t = new Thread(new Worker(), "Zoom Worker");
-        t.start();
-    }
-
-    private void relayout() {
-        for (GraphPanel panel : panels) {
-            zoom.removeLayoutComponent(panel);
-        }
-        layout();
+        timer = new Timer(1000 / TARGET_FPS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                frame();
+            }
+        });
+        timer.setCoalesce(true);
     }
 
+    // The grid only depends on the number of panels per line, so a
+    // resize that keeps it needs no more than the layout's own pass
     private void layout() {
         if (parent.getWidth() == 0 || parent.getHeight() == 0) {
             return;
@@ -63,6 +75,10 @@ public class GraphMulti {
 
         float aspectRatio = (float) parent.getWidth() / (float) parent.getHeight();
         int numPerLine = (int) Math.ceil(Math.sqrt(aspectRatio * panels.size()));
+        if (numPerLine == gridPerLine) {
+            return;
+        }
+        gridPerLine = numPerLine;
         int numLines = (int) Math.ceil((float) panels.size() / (float) numPerLine);
         int numLeft = panels.size();
         double w = 0.85 / (float) (1 + numPerLine);
@@ -83,22 +99,45 @@ public class GraphMulti {
         }
     }
 
-    private void zoomIn(Component c) {
-        Rectangle2D.Double rect = zoom.getComponentBounds(c);
-        if (curTask == null) {
-            synchronized (taskLock) {
-                curTask = new ZoomTask(curRect, rect);
-                taskLock.notifyAll();
-            }
+    /**
+     * Gives every graph a new data model, e.g. after more data arrived,
+     * in the order the graphs were created with. Should be called on
+     * the AWT event queue thread.
+     */
+    public void setData(List<GraphDataModel> data) {
+        for (int i = 0; i < panels.size(); i++) {
+            panels.get(i).setData(data.get(i));
         }
     }
 
+    private void zoomIn(Component c) {
+        startZoom(zoom.getComponentBounds(c));
+    }
+
     private void zoomOut() {
+        startZoom(initRect);
+    }
+
+    private void startZoom(Rectangle2D.Double destRect) {
         if (curTask == null) {
-            synchronized (taskLock) {
-                curTask = new ZoomTask(curRect, initRect);
-                taskLock.notifyAll();
-            }
+            setAnimating(true);
+            curTask = new ZoomTask(curRect, destRect);
+            timer.start();
+        }
+    }
+
+    private void frame() {
+        if (curTask == null || curTask.frame()) {
+            curTask = null;
+            timer.stop();
+            setAnimating(false);
+        }
+    }
+
+    // Panels stretch their last rendering while the view moves
+    private void setAnimating(boolean animating) {
+        for (GraphPanel panel : panels) {
+            panel.setAnimating(animating);
         }
     }
 
@@ -106,47 +145,30 @@ public class GraphMulti {
         private Rectangle2D.Double startRect;
         private Rectangle2D.Double destRect;
         private long startTime;
-        private long endTime;
 
         ZoomTask(Rectangle2D.Double startRect,
                  Rectangle2D.Double destRect) {
             this.startRect = startRect;
             this.destRect = destRect;
-            startTime = System.currentTimeMillis();
-            endTime = startTime + 500;
+            startTime = System.nanoTime();
         }
 
-        public void run() {
-            long curTime = System.currentTimeMillis();
-            double alpha = (double) (curTime - startTime) / (double) (endTime - startTime);
+        // Moves the view to where it should be by now; returns true
+        // once it has arrived
+        public boolean frame() {
+            double alpha = (double) (System.nanoTime() - startTime) / (ZOOM_MILLIS * 1000000.0);
             if (alpha >= 1.0) {
-                curTask = null;
                 curRect = destRect;
-                try {
-                    SwingUtilities.invokeAndWait(new Runnable() {
-                        public void run() {
-                            zoom.setViewRectangle(curRect.getX(), curRect.getY(), curRect.getWidth(), curRect.getHeight());
-                        }
-                    });
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            } else {
-                alpha = sigmoid(alpha, 10);
-                final double x = destRect.getX() * alpha + startRect.getX() * (1 - alpha);
-                final double y = destRect.getY() * alpha + startRect.getY() * (1 - alpha);
-                final double w = destRect.getWidth() * alpha + startRect.getWidth() * (1 - alpha);
-                final double h = destRect.getHeight() * alpha + startRect.getHeight() * (1 - alpha);
-                try {
-                    SwingUtilities.invokeAndWait(new Runnable() {
-                        public void run() {
-                            zoom.setViewRectangle(x, y, w, h);
-                        }
-                    });
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                zoom.setViewRectangle(curRect.getX(), curRect.getY(), curRect.getWidth(), curRect.getHeight());
+                return true;
             }
+            alpha = sigmoid(alpha, 10);
+            double x = destRect.getX() * alpha + startRect.getX() * (1 - alpha);
+            double y = destRect.getY() * alpha + startRect.getY() * (1 - alpha);
+            double w = destRect.getWidth() * alpha + startRect.getWidth() * (1 - alpha);
+            double h = destRect.getHeight() * alpha + startRect.getHeight() * (1 - alpha);
+            zoom.setViewRectangle(x, y, w, h);
+            return false;
         }
     }
 
@@ -162,27 +184,9 @@ public class GraphMulti {
         return (1.0 - (1.0 / (1.0 + Math.exp(exponent))));
     }
 
+    // Only touched on the event dispatch thread
+    private final Timer timer;
     private ZoomTask curTask;
-    private final Object taskLock = new Object();
     private Rectangle2D.Double initRect = new Rectangle2D.Double(0, 0, 1, 1);
-    
     private Rectangle2D.Double curRect = initRect;
-
-    class Worker implements Runnable {
-        public void run() {
-            while (true) {
-                synchronized (taskLock) {
-                    while (curTask == null) {
-                        try {
-                            taskLock.wait();
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                }
-                while (curTask != null) {
-                    curTask.run();
-                }
-            }
-        }
-    }
 }
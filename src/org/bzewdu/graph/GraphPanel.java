@@ -5,7 +5,23 @@ import javax.swing.border.Border;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+// Draws one GraphDataModel as a bar chart, with an error bar of one
+// standard deviation either side of each point. The chart is rendered
+// into an offscreen image, at the device resolution of the screen it
+// is shown on, and repaints only copy that image. It is rendered again
+// when the panel's size or background changes, or after setData() or
+// dataChanged(); the data points are normalized only then as well.
+// While setAnimating(true) is in effect, size changes scale the last
+// image instead, so that zooming through many panels costs one render
+// per panel at the end rather than one per frame.
+//
+// The chart itself is drawn through a Surface, so that GraphExport can
+// draw it to an image or an SVG document without showing the panel.
 
 public class GraphPanel extends JButton {
     private Color borderColor = Color.YELLOW;
@@ -24,9 +40,59 @@ public class GraphPanel extends JButton {
     private static Font baseFont = new Font("SansSerif", Font.PLAIN, 24);
     private Font titleFont;
     private Font dataPointFont;
+    private int fontHeight = -1;
     private boolean borderEnabled = false;
     private GraphDataModel data;
 
+    // The data normalized to its largest point plus its deviation, as of
+    // the last change, so that every error bar fits
+    private double[] heights;
+    private double[] errors;
+    private String[] titles;
+    private String title;
+
+    private BufferedImage image;
+    private double imageScaleX;
+    private double imageScaleY;
+    private int imageWidth;
+    private int imageHeight;
+    private boolean imageValid;
+    private boolean animating;
+
+    // What a chart is drawn on. Coordinates are in pixels of a chart
+    // of the size given to paintGraph().
+    interface Surface {
+        void fillRect(Color color, int x, int y, int width, int height);
+
+        // The string centered on the given point, as far as its bounds
+        // in the given font go
+        void drawCenteredString(Color color, Font font, String str, int centerX, int centerY);
+    }
+
+    // Draws on a Graphics
+    static class GraphicsSurface implements Surface {
+        private final Graphics g;
+
+        GraphicsSurface(Graphics g) {
+            this.g = g;
+        }
+
+        public void fillRect(Color color, int x, int y, int width, int height) {
+            g.setColor(color);
+            g.fillRect(x, y, width, height);
+        }
+
+        public void drawCenteredString(Color color, Font font, String str, int centerX, int centerY) {
+            g.setColor(color);
+            g.setFont(font);
+            FontMetrics fm = g.getFontMetrics();
+            Rectangle2D bounds = fm.getStringBounds(str, g);
+            int startX = (int) (centerX - (bounds.getWidth() / 2));
+            int startY = (int) (centerY + (bounds.getHeight() / 2));
+            g.drawString(str, startX, startY);
+        }
+    }
+
     public GraphPanel() {
         setBorder(new GraphBorder());
         setBackground(Color.BLACK);
@@ -54,6 +120,54 @@ public class GraphPanel extends JButton {
 
     public void setData(GraphDataModel data) {
         this.data = data;
+        dataChanged();
+    }
+
+    /**
+     * Re-reads the data model, e.g. after its points changed in place.
+     */
+    public void dataChanged() {
+        if (data == null) {
+            heights = null;
+            errors = null;
+            titles = null;
+            title = null;
+        } else {
+            int n = data.getNumDataPoints();
+            heights = new double[n];
+            errors = new double[n];
+            titles = new String[n];
+            double max = 0;
+            for (int i = 0; i < n; i++) {
+                heights[i] = data.getDataPoint(i);
+                errors[i] = data.getDataPointStddev(i);
+                titles[i] = data.getDataPointTitle(i);
+                max = Math.max(max, heights[i] + errors[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                heights[i] /= max;
+                errors[i] /= max;
+            }
+            title = data.getTitle();
+        }
+        imageValid = false;
+        repaint();
+    }
+
+    /**
+     * While animating, size changes stretch the last rendering instead
+     * of rendering again; turning it off renders at the final size.
+     */
+    public void setAnimating(boolean animating) {
+        this.animating = animating;
+        if (!animating) {
+            repaint();
+        }
+    }
+
+    public void setBackground(Color bg) {
+        imageValid = false;
+        super.setBackground(bg);
     }
 
     public GraphDataModel getData() {
@@ -63,78 +177,131 @@ public class GraphPanel extends JButton {
     public void paintComponent(Graphics g) {
         int width = getWidth();
         int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        // Render at device resolution, e.g. twice the size on HiDPI
+        AffineTransform tx = ((Graphics2D) g).getTransform();
+        double scaleX = tx.getScaleX();
+        double scaleY = tx.getScaleY();
+        boolean sized = (width == imageWidth && height == imageHeight &&
+                scaleX == imageScaleX && scaleY == imageScaleY);
+        if (image == null || !imageValid || (!sized && !animating)) {
+            render(width, height, scaleX, scaleY);
+            sized = true;
+        }
+        if (sized) {
+            g.drawImage(image, 0, 0, width, height, null);
+        } else {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(image, 0, 0, width, height, null);
+            g2.dispose();
+        }
+    }
+
+    private void render(int width, int height, double scaleX, double scaleY) {
+        int imageW = (int) Math.ceil(width * scaleX);
+        int imageH = (int) Math.ceil(height * scaleY);
+        if (image == null || image.getWidth() != imageW || image.getHeight() != imageH) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            image = (gc != null) ? gc.createCompatibleImage(imageW, imageH) :
+                    new BufferedImage(imageW, imageH, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g = image.createGraphics();
+        // Text as Swing would draw it on screen
+        Map<?, ?> hints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if (hints != null) {
+            g.addRenderingHints(hints);
+        }
+        g.scale(scaleX, scaleY);
+        paintGraph(new GraphicsSurface(g), width, height);
+        g.dispose();
+        imageWidth = width;
+        imageHeight = height;
+        imageScaleX = scaleX;
+        imageScaleY = scaleY;
+        imageValid = true;
+    }
+
+    /**
+     * Draws the chart at the given size, whether or not the panel is
+     * shown.
+     */
+    void paintGraph(Surface s, int width, int height) {
+        if (height != fontHeight) {
+            titleFont = baseFont.deriveFont((float) height / 20);
+            dataPointFont = baseFont.deriveFont((float) height / 26);
+            fontHeight = height;
+        }
 
-        g.setColor(getBackground());
-        g.fillRect(0, 0, width, height);
+        s.fillRect(getBackground(), 0, 0, width, height);
 
-        if (data != null) {
+        if (heights != null) {
             // Title
-            g.setColor(axisColor);
-            g.setFont(titleFont);
-            drawRelativeCenteredString(g, 0.5, 0.05, data.getTitle());
+            drawRelativeCenteredString(s, width, height, titleFont, 0.5, 0.05, title);
 
             // Data points
-            g.setFont(dataPointFont);
-            double rectWidth = 0.8 / (3 * data.getNumDataPoints());
-            double rectSpacing = 0.8 / (1 + data.getNumDataPoints());
-            // Normalize all points to largest
-            double max = 0;
-            for (int i = 0; i < data.getNumDataPoints(); i++) {
-                max = Math.max(max, data.getDataPoint(i));
-            }
-            for (int i = 0; i < data.getNumDataPoints(); i++) {
-                // Bar
-                double pt = data.getDataPoint(i);
+            double rectWidth = 0.8 / (3 * heights.length);
+            double rectSpacing = 0.8 / (1 + heights.length);
+            for (int i = 0; i < heights.length; i++) {
+                // Bar, normalized to the largest point
+                double pt = heights[i];
                 double x = (0.1 + ((i + 1) * rectSpacing)) - (rectWidth / 2);
                 // Go up from bottom
-                double y = 1 - (0.1 + (0.8 * (pt / max)));
+                double y = 1 - (0.1 + (0.8 * pt));
                 double w = rectWidth;
-                double h = 0.8 * (pt / max);
-                g.setColor(dataBGColor);
+                double h = 0.8 * pt;
                 double spacer = 0.005;
-                fillRelativeRect(g, x - spacer, y - spacer, w + 2 * spacer, h + 2 * spacer);
-                g.setColor(dataColors[i % dataColors.length]);
-                fillRelativeRect(g, x, y, w, h);
+                fillRelativeRect(s, width, height, dataBGColor,
+                        x - spacer, y - spacer, w + 2 * spacer, h + 2 * spacer);
+                fillRelativeRect(s, width, height, dataColors[i % dataColors.length], x, y, w, h);
+
+                // Error bar, cut off at the axis
+                if (errors[i] > 0) {
+                    double top = 1 - (0.1 + (0.8 * (pt + errors[i])));
+                    double bottom = 1 - (0.1 + (0.8 * Math.max(pt - errors[i], 0)));
+                    double center = x + (w / 2);
+                    double line = 0.004;
+                    fillRelativeRect(s, width, height, axisColor,
+                            center - (line / 2), top, line, bottom - top);
+                    fillRelativeRect(s, width, height, axisColor,
+                            center - (w / 4), top, w / 2, line);
+                    fillRelativeRect(s, width, height, axisColor,
+                            center - (w / 4), bottom - line, w / 2, line);
+                }
 
                 // Title
-                g.setColor(axisColor);
-                drawRelativeCenteredString(g, 0.1 + ((i + 1) * rectSpacing), 0.95, data.getDataPointTitle(i));
+                drawRelativeCenteredString(s, width, height, dataPointFont,
+                        0.1 + ((i + 1) * rectSpacing), 0.95, titles[i]);
             }
         }
 
         // Axes
-        g.setColor(axisColor);
-        fillRelativeRect(g, 0.1, 0.1, 0.01, 0.8);
-        fillRelativeRect(g, 0.1, 0.9, 0.8, 0.01);
-    }
-
-    public void reshape(int x, int y, int width, int height) {
-        super.reshape(x, y, width, height);
-        titleFont = baseFont.deriveFont((float) height / 20);
-        dataPointFont = baseFont.deriveFont((float) height / 26);
+        fillRelativeRect(s, width, height, axisColor, 0.1, 0.1, 0.01, 0.8);
+        fillRelativeRect(s, width, height, axisColor, 0.1, 0.9, 0.8, 0.01);
     }
 
-    private void fillRelativeRect(Graphics g,
+    private void fillRelativeRect(Surface s, int parentWidth, int parentHeight,
+                                  Color color,
                                   double x,
                                   double y,
                                   double width,
                                   double height) {
-        int rx = (int) Math.ceil((x * getWidth()));
-        int ry = (int) Math.ceil((y * getHeight()));
-        int rw = (int) Math.ceil((width * getWidth()));
-        int rh = (int) Math.ceil((height * getHeight()));
-        g.fillRect(rx, ry, rw, rh);
+        int rx = (int) Math.ceil((x * parentWidth));
+        int ry = (int) Math.ceil((y * parentHeight));
+        int rw = (int) Math.ceil((width * parentWidth));
+        int rh = (int) Math.ceil((height * parentHeight));
+        s.fillRect(color, rx, ry, rw, rh);
     }
 
-    private void drawRelativeCenteredString(Graphics g,
+    private void drawRelativeCenteredString(Surface s, int parentWidth, int parentHeight,
+                                            Font font,
                                             double centerX,
                                             double centerY,
                                             String str) {
-        FontMetrics fm = g.getFontMetrics();
-        Rectangle2D bounds = fm.getStringBounds(str, g);
-        int startX = (int) (Math.ceil(centerX * getWidth()) - (bounds.getWidth() / 2));
-        int startY = (int) (Math.ceil(centerY * getHeight()) + (bounds.getHeight() / 2));
-        g.drawString(str, startX, startY);
+        s.drawCenteredString(axisColor, font, str,
+                (int) Math.ceil(centerX * parentWidth), (int) Math.ceil(centerY * parentHeight));
     }
 
 
@@ -1,7 +1,6 @@
 package org.bzewdu.graph;
 
 
-import org.bzewdu.stats.DataSet;
 import org.bzewdu.util.Subresults;
 
 import javax.swing.*;
@@ -10,10 +9,23 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Each experiment's subresults are loaded on a thread of their own.
+// The window opens right away; the graphs appear once the first
+// experiment, which names the benchmarks, is loaded, and fill in as
+// the others arrive. Loaded subresults are only handed over to the
+// event dispatch thread, which is the only one that reads them, and
+// builds a new GraphDataMatrix for the graphs each time.
 
 public class GraphRW {
     private static void usage() {
-        System.out.println("Usage: java GraphRW [JDK identifier string] [subresults directory] ...");
+        System.out.println("Usage: java GraphRW [-o directory [-f png|svg] [-s WIDTHxHEIGHT]]");
+        System.out.println("                    [JDK identifier string] [subresults directory] ...");
         System.out.println("Graphs multiple benchmarks' subresults from multiple JDKs.");
         System.out.println("JDKs are displayed in graphs in the order they are specified");
         System.out.println("on the command line.");
@@ -23,63 +35,156 @@ public class GraphRW {
         System.out.println("                 \"JDK 6\" .../results-16/results \\");
         System.out.println("Once window is visible, left-click on a particular benchmark");
         System.out.println("to zoom in, and right-click to zoom back out.");
+        System.out.println("With -o, no window is opened: each graph is written to the given");
+        System.out.println("directory as a PNG (the default) or SVG image of the given size");
+        System.out.println("(default 640x480), together with an index.html showing them all.");
         System.exit(1);
     }
 
-    private static List<GraphDataModel> buildDataModel(final String[] experimentNames,
-                                                       final Subresults[] subresults) {
-        List<GraphDataModel> data = new ArrayList<GraphDataModel>();
-        Subresults base = subresults[0];
-        for (final String benchmarkName : base.benchmarkNames()) {
-            // Find benchmark in all JDKs
-            data.add(new GraphDataModel() {
-                public String getTitle() {
-                    return benchmarkName;
-                }
-
-                public int getNumDataPoints() {
-                    return experimentNames.length;
-                }
+    static List<GraphDataModel> buildDataModel(String[] experimentNames,
+                                               Subresults[] subresults) {
+        return new GraphDataMatrix(experimentNames, subresults).models();
+    }
 
-                public double getDataPoint(int i) {
-                    DataSet datum = subresults[i].get(benchmarkName);
-                    if (datum == null) return 0;
-                    return datum.mean();
+    // Starts loading every directory's subresults at once, for export
+    private static List<Future<Subresults>> loadAll(File[] directories) {
+        ExecutorService executor = Executors.newFixedThreadPool(directories.length);
+        List<Future<Subresults>> loads = new ArrayList<Future<Subresults>>();
+        for (final File directory : directories) {
+            loads.add(executor.submit(new Callable<Subresults>() {
+                public Subresults call() throws IOException {
+                    return new Subresults(directory);
                 }
+            }));
+        }
+        // The threads end once the loads are done
+        executor.shutdown();
+        return loads;
+    }
 
-                public String getDataPointTitle(int i) {
-                    return experimentNames[i];
-                }
-            });
+    private static Subresults await(Future<Subresults> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
         }
-        return data;
     }
 
     public static void main(String[] args) throws IOException {
-        if ((args.length == 0) || ((args.length % 2) != 0))
+        File exportDir = null;
+        String format = "png";
+        int width = 640;
+        int height = 480;
+        int i = 0;
+        try {
+            while (i < args.length && args[i].startsWith("-")) {
+                String option = args[i++];
+                if (i == args.length)
+                    usage();
+                if (option.equals("-o")) {
+                    exportDir = new File(args[i++]);
+                } else if (option.equals("-f")) {
+                    format = args[i++];
+                    if (!format.equals("png") && !format.equals("svg"))
+                        usage();
+                } else if (option.equals("-s")) {
+                    String[] size = args[i++].split("x");
+                    if (size.length != 2)
+                        usage();
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    if (width <= 0 || height <= 0)
+                        usage();
+                } else {
+                    usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if ((args.length == i) || (((args.length - i) % 2) != 0))
             usage();
+        if (exportDir != null) {
+            // Before anything asks AWT for a display
+            System.setProperty("java.awt.headless", "true");
+        }
 
-        String[] experimentNames = new String[args.length / 2];
-        Subresults[] subresults = new Subresults[args.length / 2];
-        int i = 0;
+        final String[] experimentNames = new String[(args.length - i) / 2];
+        final File[] directories = new File[(args.length - i) / 2];
         int j = 0;
         while (i < args.length) {
             experimentNames[j] = args[i++];
-            subresults[j] = new Subresults(new File(args[i++]));
+            directories[j] = new File(args[i++]);
             j++;
         }
+        final Subresults[] subresults = new Subresults[directories.length];
+
+        if (exportDir != null) {
+            List<Future<Subresults>> loads = loadAll(directories);
+            for (j = 0; j < subresults.length; j++) {
+                subresults[j] = await(loads.get(j));
+            }
+            new GraphExport(exportDir, format, width, height)
+                    .export("Benchmark results", buildDataModel(experimentNames, subresults));
+            return;
+        }
         Toolkit.getDefaultToolkit().setDynamicLayout(true);
-        final JFrame frame = new JFrame("Benchmark results");
+        final JFrame frame = new JFrame("Benchmark results (loading)");
         frame.getContentPane().setBackground(Color.BLACK);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        GraphMulti multi = new GraphMulti(frame.getContentPane(), buildDataModel(experimentNames, subresults));
         frame.setSize(640, 480);
         frame.setVisible(true);
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                frame.invalidate();
-                frame.validate();
-            }
-        });
+
+        // Each experiment goes to the event dispatch thread as soon as
+        // it is loaded, in whatever order they finish
+        final GraphMulti[] multi = new GraphMulti[1];
+        final int[] numLoaded = new int[1];
+        for (j = 0; j < directories.length; j++) {
+            final int experiment = j;
+            Thread loader = new Thread(new Runnable() {
+                public void run() {
+                    Subresults loaded;
+                    try {
+                        loaded = new Subresults(directories[experiment]);
+                    } catch (Exception e) {
+                        System.err.println("Could not load " + directories[experiment] + ": " + e.getMessage());
+                        if (experiment == 0) {
+                            // Without it there are no benchmarks to show
+                            System.exit(1);
+                        }
+                        loaded = null;
+                    }
+                    final Subresults result = loaded;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            subresults[experiment] = result;
+                            if (++numLoaded[0] == directories.length) {
+                                frame.setTitle("Benchmark results");
+                            }
+                            if (multi[0] != null) {
+                                multi[0].setData(buildDataModel(experimentNames, subresults));
+                            } else if (subresults[0] != null) {
+                                multi[0] = new GraphMulti(frame.getContentPane(),
+                                        buildDataModel(experimentNames, subresults));
+                                frame.invalidate();
+                                frame.validate();
+                                frame.repaint();
+                            }
+                        }
+                    });
+                }
+            }, "Load " + directories[j]);
+            loader.setDaemon(true);
+            loader.start();
+        }
     }
 }
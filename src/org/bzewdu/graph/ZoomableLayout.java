@@ -3,16 +3,22 @@ package org.bzewdu.graph;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 // This class manages pushing around of the components it knows about
 // within a specified Container. It interacts with its managed
-// components only through setLocation() and setSize(). You specify
-// each component's location and size in normalized coordinates: (0,
-// 0) is the upper left of the parent's container and (1, 1) is the
-// lower right. You can zoom the view to a particular normalized width
-// and height as well.
+// components only through setBounds(). You specify each component's
+// location and size in normalized coordinates: (0, 0) is the upper
+// left of the parent's container and (1, 1) is the lower right. You
+// can zoom the view to a particular normalized width and height as
+// well.
+//
+// Components are indexed by identity, and adding one that is already
+// known just moves it, so a layout can be redone in place. Components
+// that are outside the parent both before and after a layout are not
+// touched at all, which keeps zooming into one of thousands cheap.
 
 public class ZoomableLayout implements LayoutManager {
     private Container parent;
@@ -27,6 +33,10 @@ public class ZoomableLayout implements LayoutManager {
         private double ny;
         private double nw;
         private double nh;
+        // Position in componentInfo
+        private int index;
+        // Whether the last bounds given to c were inside the parent
+        private boolean onScreen = true;
 
         ComponentInfo(Component c,
                       double nx, double ny, double nw, double nh) {
@@ -57,35 +67,56 @@ public class ZoomableLayout implements LayoutManager {
             return nh;
         }
 
+        void set(double nx, double ny, double nw, double nh) {
+            this.nx = nx;
+            this.ny = ny;
+            this.nw = nw;
+            this.nh = nh;
+        }
+
         public void update(int parentWidth, int parentHeight) {
             int x = (int) Math.ceil(parentWidth * (nx - viewX) / viewW);
             int w = (int) Math.ceil(parentWidth * (nw / viewW));
             int y = (int) Math.ceil(parentHeight * (ny - viewY) / viewH);
             int h = (int) Math.ceil(parentHeight * (nh / viewH));
 
-            c.setLocation(x, y);
-            c.setSize(w, h);
+            boolean visible = x < parentWidth && y < parentHeight && x + w > 0 && y + h > 0;
+            // Something that has left the view is moved out once and
+            // then left where it is
+            if (visible || onScreen) {
+                c.setBounds(x, y, w, h);
+            }
+            onScreen = visible;
         }
     }
 
     private List<ComponentInfo> componentInfo = new ArrayList<ComponentInfo>();
+    private Map<Component, ComponentInfo> index = new IdentityHashMap<Component, ComponentInfo>();
 
     public ZoomableLayout(Container parent) {
         this.parent = parent;
     }
 
+    // Adds c, or moves it if it has been added before
     public void add(Component c,
                     double nx, double ny, double nw, double nh) {
-        componentInfo.add(new ComponentInfo(c, nx, ny, nw, nh));
+        ComponentInfo info = index.get(c);
+        if (info != null) {
+            info.set(nx, ny, nw, nh);
+            return;
+        }
+        info = new ComponentInfo(c, nx, ny, nw, nh);
+        info.index = componentInfo.size();
+        componentInfo.add(info);
+        index.put(c, info);
     }
 
     public Rectangle2D.Double getComponentBounds(Component c) {
-        for (ComponentInfo info : componentInfo) {
-            if (info.c() == c) {
-                return new Rectangle2D.Double(info.nx(), info.ny(), info.nw(), info.nh());
-            }
+        ComponentInfo info = index.get(c);
+        if (info == null) {
+            return null;
         }
-        return null;
+        return new Rectangle2D.Double(info.nx(), info.ny(), info.nw(), info.nh());
     }
 
     // This only sets the view rectangle; the application is responsible
@@ -121,13 +152,17 @@ public class ZoomableLayout implements LayoutManager {
         return parent.getPreferredSize();
     }
 
+    // The order of the components does not matter, so the last one
+    // takes the removed one's place
     public void removeLayoutComponent(Component comp) {
-        for (Iterator<ComponentInfo> iter = componentInfo.iterator(); iter.hasNext();) {
-            ComponentInfo info = iter.next();
-            if (info.c() == comp) {
-                iter.remove();
-                return;
-            }
+        ComponentInfo info = index.remove(comp);
+        if (info == null) {
+            return;
+        }
+        ComponentInfo last = componentInfo.remove(componentInfo.size() - 1);
+        if (last != info) {
+            last.index = info.index;
+            componentInfo.set(info.index, last);
         }
     }
 }
@@ -0,0 +1,214 @@
+package org.bzewdu.stats;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Percentile bootstrap confidence intervals for the mean of a DataSet
+ * and for the percent difference between two DataSets. Makes no
+ * assumption about the shape of the distribution, unlike the t-test.
+ *
+ * Resamples are drawn in parallel on a fork/join pool. Each task
+ * splits its SplittableRandom before forking, and the split points
+ * depend only on the number of resamples, so the interval for a given
+ * seed and stream name is the same on every run regardless of
+ * scheduling. Called from a task already running on a fork/join pool,
+ * e.g. one row of many computed in parallel, the resamples are forked
+ * into that pool instead of blocking on a second one.
+ */
+public class Bootstrap {
+    public static final double DEFAULT_CONFIDENCE = 0.95;
+    public static final int DEFAULT_RESAMPLES = 2000;
+
+    // Samples drawn per leaf task before it is worth forking; small
+    // enough that one row of 10 samples x 2000 resamples still splits
+    private static final int LEAF_WORK = 1 << 12;
+
+    private final int resamples;
+    private final double confidence;
+    private final long seed;
+    private final ForkJoinPool pool;
+
+    public Bootstrap(int resamples, long seed) {
+        this(resamples, DEFAULT_CONFIDENCE, seed, ForkJoinPool.commonPool());
+    }
+
+    public Bootstrap(int resamples, double confidence, long seed, ForkJoinPool pool) {
+        if (resamples < 1) {
+            throw new IllegalArgumentException("Need at least one resample, got " + resamples);
+        }
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("Confidence must be between 0 and 1, got " + confidence);
+        }
+        this.resamples = resamples;
+        this.confidence = confidence;
+        this.seed = seed;
+        this.pool = pool;
+    }
+
+    public int getResamples() {
+        return resamples;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public static class Interval {
+        private final double lower;
+        private final double upper;
+
+        public Interval(double lower, double upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public double getLower() {
+            return lower;
+        }
+
+        public double getUpper() {
+            return upper;
+        }
+    }
+
+    private static final Interval EMPTY = new Interval(Double.NaN, Double.NaN);
+
+    /**
+     * Interval for the mean of data, NaN to NaN for a sketched
+     * DataSet whose samples are gone. The stream names the quantity,
+     * e.g. by benchmark, so that every quantity gets its own
+     * reproducible random sequence.
+     */
+    public Interval meanInterval(DataSet data, String stream) {
+        if (data.isSketched()) {
+            return EMPTY;
+        }
+        double[] samples = validSamples(data);
+        if (samples.length == 0) {
+            return EMPTY;
+        }
+        return run(samples, null, false, stream);
+    }
+
+    /**
+     * Interval for CompareUtils.percentDiff(baseline mean, specimen
+     * mean), resampling both sets independently.
+     */
+    public Interval percentDiffInterval(DataSet baseline, DataSet specimen,
+                                        boolean isHigherBetter, String stream) {
+        if (baseline.isSketched() || specimen.isSketched()) {
+            return EMPTY;
+        }
+        double[] base = validSamples(baseline);
+        double[] spec = validSamples(specimen);
+        if (base.length == 0 || spec.length == 0) {
+            return EMPTY;
+        }
+        return run(base, spec, isHigherBetter, stream);
+    }
+
+    private Interval run(double[] base, double[] spec, boolean isHigherBetter, String stream) {
+        double[] stats = new double[resamples];
+        SplittableRandom random = new SplittableRandom(seed ^ mix(stream.hashCode()));
+        int work = base.length + ((spec != null) ? spec.length : 0);
+        ResampleTask task = new ResampleTask(base, spec, isHigherBetter, stats, 0, resamples, work, random);
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+        Arrays.sort(stats);
+        double alpha = (1.0 - confidence) / 2.0;
+        return new Interval(percentile(stats, alpha), percentile(stats, 1.0 - alpha));
+    }
+
+    @SuppressWarnings("serial")
+    static class ResampleTask extends RecursiveAction {
+        private final double[] base;
+        private final double[] spec;
+        private final boolean isHigherBetter;
+        private final double[] out;
+        private final int lo;
+        private final int hi;
+        private final int work;
+        private final SplittableRandom random;
+
+        ResampleTask(double[] base, double[] spec, boolean isHigherBetter, double[] out,
+                     int lo, int hi, int work, SplittableRandom random) {
+            this.base = base;
+            this.spec = spec;
+            this.isHigherBetter = isHigherBetter;
+            this.out = out;
+            this.lo = lo;
+            this.hi = hi;
+            this.work = work;
+            this.random = random;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1 || (long) (hi - lo) * work <= LEAF_WORK) {
+                for (int i = lo; i < hi; i++) {
+                    double baseMean = resampleMean(base, random);
+                    out[i] = (spec == null) ? baseMean :
+                            CompareUtils.percentDiff(baseMean, resampleMean(spec, random), isHigherBetter);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            SplittableRandom right = random.split();
+            invokeAll(new ResampleTask(base, spec, isHigherBetter, out, lo, mid, work, random),
+                    new ResampleTask(base, spec, isHigherBetter, out, mid, hi, work, right));
+        }
+    }
+
+    private static double resampleMean(double[] samples, SplittableRandom random) {
+        int n = samples.length;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += samples[random.nextInt(n)];
+        }
+        return sum / n;
+    }
+
+    // Linear interpolation between the closest ranks
+    private static double percentile(double[] sorted, double p) {
+        double rank = p * (sorted.length - 1);
+        int below = (int) Math.floor(rank);
+        int above = Math.min(below + 1, sorted.length - 1);
+        double frac = rank - below;
+        if (frac == 0 || sorted[below] == sorted[above]) {
+            return sorted[below];
+        }
+        return sorted[below] + frac * (sorted[above] - sorted[below]);
+    }
+
+    // Negative samples are failed iterations, as in DataSet.mean()
+    private static double[] validSamples(DataSet data) {
+        DoubleBuffer values = data.asReadOnlyBuffer();
+        double[] samples = new double[values.remaining()];
+        int n = 0;
+        while (values.hasRemaining()) {
+            double v = values.get();
+            if (v >= 0) {
+                samples[n++] = v;
+            }
+        }
+        return (n == samples.length) ? samples : Arrays.copyOf(samples, n);
+    }
+
+    // Spreads the bits of a stream's hash over the whole seed
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
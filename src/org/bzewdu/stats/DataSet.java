@@ -1,24 +1,130 @@
 package org.bzewdu.stats;
 
-import java.util.ArrayList;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 public class DataSet implements Iterable<Number> {
-    private List<Number> data = new ArrayList<Number>();
-    private boolean dirty = true;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private double[] data;
+    private int size;
+    // Replaces data in a sketched DataSet; summarizes the valid samples
+    private final TDigest sketch;
+    private boolean dirty = false;
+    // Running moments over the non-negative samples only; negative
+    // values mark failed iterations and are excluded from the statistics.
+    private int numPts;
     private double mean;
-    private double variance;
-    private double stddev;
+    private double m2;
+    // The valid samples in order, for quantile(); null until first
+    // needed and again after every add() or remove(). Concurrent
+    // readers may each sort, but only ever publish a complete array.
+    private volatile double[] sorted;
+
+    public DataSet() {
+        data = new double[INITIAL_CAPACITY];
+        sketch = null;
+    }
+
+    private DataSet(TDigest sketch) {
+        this.sketch = sketch;
+    }
+
+    /**
+     * Returns an empty DataSet that does not keep its samples. Only
+     * the moments and a TDigest of the valid samples are maintained,
+     * so memory stays bounded however many samples are added; the
+     * samples themselves cannot be removed, iterated or copied, and
+     * quantiles are estimates with the given compression.
+     */
+    public static DataSet sketched(double compression) {
+        return new DataSet(new TDigest(compression));
+    }
+
+    public boolean isSketched() {
+        return sketch != null;
+    }
 
     public void add(double dataPoint) {
-        dirty = true;
-        data.add(dataPoint);
+        if (sketch != null) {
+            size++;
+            accumulate(dataPoint);
+            return;
+        }
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size + (size >> 1) + 1);
+        }
+        data[size++] = dataPoint;
+        sorted = null;
+        if (!dirty) {
+            accumulate(dataPoint);
+        }
+    }
+
+    /**
+     * Appends all remaining values of the buffer in one bulk copy.
+     */
+    public void addAll(DoubleBuffer values) {
+        if (sketch != null) {
+            while (values.hasRemaining()) {
+                add(values.get());
+            }
+            return;
+        }
+        int n = values.remaining();
+        if (size + n > data.length) {
+            data = Arrays.copyOf(data, Math.max(size + n, size + (size >> 1) + 1));
+        }
+        values.get(data, size, n);
+        sorted = null;
+        if (!dirty) {
+            for (int i = size; i < size + n; i++) {
+                accumulate(data[i]);
+            }
+        }
+        size += n;
+    }
+
+    /**
+     * Adds all samples of other, which must be sketched if this
+     * DataSet is. Sketches are merged without their samples.
+     */
+    public void addAll(DataSet other) {
+        if (other.sketch == null) {
+            addAll(other.asReadOnlyBuffer());
+            return;
+        }
+        if (sketch == null) {
+            throw new UnsupportedOperationException("Cannot add a sketched DataSet to one with samples");
+        }
+        other.clean();
+        // Chan et al.'s update for combining two sets of moments
+        int n = numPts + other.numPts;
+        if (n > 0) {
+            double delta = other.mean - mean;
+            m2 += other.m2 + delta * delta * ((double) numPts * other.numPts / n);
+            mean += delta * other.numPts / n;
+        }
+        numPts = n;
+        size += other.size;
+        sketch.add(other.sketch);
     }
 
     public boolean remove(double dataPoint) {
-        dirty = true;
-        return data.remove(dataPoint);
+        checkSamples();
+        long bits = Double.doubleToLongBits(dataPoint);
+        for (int i = 0; i < size; i++) {
+            if (Double.doubleToLongBits(data[i]) == bits) {
+                System.arraycopy(data, i + 1, data, i, size - i - 1);
+                --size;
+                dirty = true;
+                sorted = null;
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -26,7 +132,25 @@ public class DataSet implements Iterable<Number> {
      * set.
      */
     public Iterator<Number> iterator() {
-        return data.iterator();
+        checkSamples();
+        return new Iterator<Number>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            public Number next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return data[next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     public double mean() {
@@ -35,64 +159,121 @@ public class DataSet implements Iterable<Number> {
         return mean;
     }
 
+    /**
+     * Returns the q-quantile of the valid samples, NaN if there are
+     * none. With samples this interpolates linearly between the sorted
+     * samples placed at ranks 0.5, 1.5, ... (the Hazen definition,
+     * which is also what a TDigest converges to); sketched DataSets
+     * return the TDigest estimate. The samples are sorted once and
+     * kept sorted until the next add() or remove().
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1, got " + q);
+        }
+        if (sketch != null) {
+            return sketch.quantile(q);
+        }
+        double[] valid = sortedValidSamples();
+        int n = valid.length;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double rank = Math.min(Math.max(q * n - 0.5, 0), n - 1);
+        int below = (int) rank;
+        int above = Math.min(below + 1, n - 1);
+        return valid[below] + (rank - below) * (valid[above] - valid[below]);
+    }
+
+    private double[] sortedValidSamples() {
+        double[] valid = sorted;
+        if (valid == null) {
+            valid = new double[size];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (data[i] >= 0) {
+                    valid[n++] = data[i];
+                }
+            }
+            valid = Arrays.copyOf(valid, n);
+            Arrays.sort(valid);
+            sorted = valid;
+        }
+        return valid;
+    }
+
     public double stddev() {
-        if (dirty)
-            recompute();
-        return stddev;
+        return Math.sqrt(variance());
     }
 
     public double variance() {
         if (dirty)
             recompute();
-        return variance;
+        return (numPts > 1) ? m2 / (numPts - 1) : 0;
     }
 
     public int numSamples() {
-        return data.size();
+        return size;
     }
 
-    private void recompute() {
-        mean = 0;
-        stddev = 0;
-        variance = 0;
-
-        // Note: we use the same Numerical Recipes-derived algorithm for
-        // reducing the rounding error in the variance computation as is
-        // used in stats.awk.
-
-        int numPts = 0;
-        for (Number value : this) {
-            if (value.doubleValue() >= 0) {
-                ++numPts;
-                mean += value.doubleValue();
+    /**
+     * Number of samples that take part in the mean and variance,
+     * i.e. those which are not negative.
+     */
+    public int numValidSamples() {
+        if (dirty)
+            recompute();
+        return numPts;
+    }
+
+    // Welford's online update; numerically stable without a second
+    // pass over the samples.
+    private void accumulate(double value) {
+        if (value >= 0) {
+            if (sketch != null) {
+                sketch.add(value);
             }
+            ++numPts;
+            double dev = value - mean;
+            mean += dev / numPts;
+            m2 += dev * (value - mean);
         }
+    }
 
-        if (numPts > 1) {
-            mean /= (double) numPts;
-
-            double err = 0;
+    // Only needed after remove(), which cannot be undone incrementally
+    // without losing precision.
+    private void clean() {
+        if (dirty)
+            recompute();
+    }
 
-            for (Number value : this) {
-                if (value.doubleValue() >= 0) {
-                    double dev = value.doubleValue() - mean;
-                    err += dev;
-                    variance = variance + dev * dev;
-                }
-            }
-            variance = (variance - (err * err) / numPts) / (numPts - 1);
-            stddev = Math.sqrt(variance);
+    private void recompute() {
+        numPts = 0;
+        mean = 0;
+        m2 = 0;
+        for (int i = 0; i < size; i++) {
+            accumulate(data[i]);
         }
-
         dirty = false;
     }
-    
+
+    /**
+     * Returns a read-only view of the samples without copying
+     * them. The view is only valid until the next add() or remove().
+     */
+    public DoubleBuffer asReadOnlyBuffer() {
+        checkSamples();
+        return DoubleBuffer.wrap(data, 0, size).slice().asReadOnlyBuffer();
+    }
+
     public double[] toDoubleArray() {
-        int i = 0;
-        double[] d = new double[data.size()];
-        for (Number num : this) {
-            d[i++] = num.doubleValue();
+        checkSamples();
+        return Arrays.copyOf(data, size);
+    }
+
+    private void checkSamples() {
+        if (sketch != null) {
+            throw new UnsupportedOperationException("A sketched DataSet does not keep its samples");
         }
-        return d;
     }
 }
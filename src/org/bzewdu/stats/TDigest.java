@@ -0,0 +1,246 @@
+package org.bzewdu.stats;
+
+import java.util.Arrays;
+
+/**
+ * A merging t-digest (Dunning and Ertl): a mergeable summary of a
+ * distribution from which quantiles can be estimated in bounded
+ * memory. Values are collected in a buffer and periodically merged
+ * into a sorted list of weighted centroids whose sizes are limited by
+ * two scale functions, so centroids shrink towards the tails and
+ * extreme quantiles such as p99.9 remain accurate.
+ *
+ * The number of centroids stays within a small multiple of the
+ * compression; larger values are more accurate and use more memory.
+ * Until the first merge every value is its own centroid, so quantiles
+ * of small data sets are exact.
+ *
+ * Safe for use from several threads; quantile() merges pending values
+ * too, so even readers need the lock.
+ */
+public class TDigest {
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private final double compression;
+    private double[] means;
+    private double[] weights;
+    private int numCentroids;
+    private double[] buffer;
+    private int buffered;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("Compression must be at least 10, got " + compression);
+        }
+        this.compression = compression;
+        int capacity = (int) Math.ceil(compression * 2) + 1;
+        means = new double[capacity];
+        weights = new double[capacity];
+        buffer = new double[(int) (5 * compression)];
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    public synchronized void add(double value) {
+        if (Double.isNaN(value)) {
+            throw new IllegalArgumentException("Cannot add NaN");
+        }
+        if (buffered == buffer.length) {
+            merge(null, null, 0);
+        }
+        buffer[buffered++] = value;
+        totalWeight++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds everything summarized by other to this digest; other is not
+     * changed.
+     */
+    public void add(TDigest other) {
+        // Snapshot other under its own lock only, so that two digests
+        // adding each other cannot deadlock
+        double[] otherMeans;
+        double[] otherWeights;
+        double otherTotal;
+        double otherMin;
+        double otherMax;
+        synchronized (other) {
+            other.flush();
+            if (other.numCentroids == 0) {
+                return;
+            }
+            otherMeans = Arrays.copyOf(other.means, other.numCentroids);
+            otherWeights = Arrays.copyOf(other.weights, other.numCentroids);
+            otherTotal = other.totalWeight;
+            otherMin = other.min;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            flush();
+            totalWeight += otherTotal;
+            min = Math.min(min, otherMin);
+            max = Math.max(max, otherMax);
+            merge(otherMeans, otherWeights, otherMeans.length);
+        }
+    }
+
+    /**
+     * Number of values added.
+     */
+    public synchronized long size() {
+        return (long) totalWeight;
+    }
+
+    /**
+     * Estimates the value below which the fraction q of the values
+     * lie, interpolating between centroid midpoints and the exact
+     * minimum and maximum. NaN if the digest is empty.
+     */
+    public synchronized double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1, got " + q);
+        }
+        if (numCentroids == 0) {
+            // Nothing merged yet: every value is still exact
+            double[] sorted = Arrays.copyOf(buffer, buffered);
+            Arrays.sort(sorted);
+            double[] ones = new double[buffered];
+            Arrays.fill(ones, 1);
+            return quantile(q, sorted, ones, buffered);
+        }
+        flush();
+        return quantile(q, means, weights, numCentroids);
+    }
+
+    private double quantile(double q, double[] m, double[] w, int n) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double index = q * totalWeight;
+        if (index <= w[0] / 2) {
+            return interpolate(min, m[0], index / (w[0] / 2), w[0] == 1);
+        }
+        double cumulative = w[0] / 2;
+        for (int i = 1; i < n; i++) {
+            double next = cumulative + (w[i - 1] + w[i]) / 2;
+            if (index <= next) {
+                return m[i - 1] + (index - cumulative) / (next - cumulative) * (m[i] - m[i - 1]);
+            }
+            cumulative = next;
+        }
+        double last = w[n - 1];
+        return interpolate(max, m[n - 1], (totalWeight - index) / (last / 2), last == 1);
+    }
+
+    // Between an extreme and the first or last centroid; a single
+    // value has no spread of its own
+    private static double interpolate(double extreme, double mean, double fraction, boolean singleton) {
+        if (singleton) {
+            return mean;
+        }
+        return extreme + fraction * (mean - extreme);
+    }
+
+    private void flush() {
+        if (buffered > 0) {
+            merge(null, null, 0);
+        }
+    }
+
+    // Merges the sorted buffer and the given sorted centroids into the
+    // existing ones and rebuilds the centroid list in a single sweep
+    private void merge(double[] otherMeans, double[] otherWeights, int otherCount) {
+        Arrays.sort(buffer, 0, buffered);
+        double[] ones = new double[buffered];
+        Arrays.fill(ones, 1);
+        int n = numCentroids + buffered;
+        double[] m = new double[n + otherCount];
+        double[] w = new double[n + otherCount];
+        mergeSorted(means, weights, numCentroids, buffer, ones, buffered, m, w);
+        buffered = 0;
+        if (otherCount > 0) {
+            double[] m2 = new double[n + otherCount];
+            double[] w2 = new double[n + otherCount];
+            mergeSorted(m, w, n, otherMeans, otherWeights, otherCount, m2, w2);
+            m = m2;
+            w = w2;
+            n += otherCount;
+        }
+
+        // exp(z / compression) of the log-odds scale, see qLimit()
+        double z = 4 * Math.log(Math.max(totalWeight / compression, 1)) + 24;
+        double growth = Math.exp(z / compression);
+        numCentroids = 0;
+        double soFar = 0;
+        double limit = totalWeight * qLimit(0, growth);
+        means[0] = m[0];
+        weights[0] = w[0];
+        for (int i = 1; i < n; i++) {
+            double current = weights[numCentroids];
+            if (soFar + current + w[i] <= limit) {
+                weights[numCentroids] = current + w[i];
+                means[numCentroids] += (m[i] - means[numCentroids]) * w[i] / weights[numCentroids];
+            } else {
+                soFar += current;
+                limit = totalWeight * qLimit(soFar / totalWeight, growth);
+                numCentroids++;
+                if (numCentroids == means.length) {
+                    means = Arrays.copyOf(means, numCentroids * 2);
+                    weights = Arrays.copyOf(weights, numCentroids * 2);
+                }
+                means[numCentroids] = m[i];
+                weights[numCentroids] = w[i];
+            }
+        }
+        numCentroids++;
+    }
+
+    // The largest quantile a centroid starting at q may reach: one unit
+    // further along the stricter of two scale functions. The arcsine
+    // k(q) = compression / (2 pi) * asin(2q - 1) keeps centroids in the
+    // middle small; the log-odds k(q) = compression / z * log(q / (1 - q)),
+    // with z = 4 log(n / compression) + 24, keeps shrinking them towards
+    // the extreme tails, where the arcsine leaves the last 1 / compression^2
+    // of the values in a single centroid.
+    private double qLimit(double q, double growth) {
+        if (q >= 1) {
+            return 1;
+        }
+        double odds = q / (1 - q) * growth;
+        double logOdds = odds / (1 + odds);
+        double k1 = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        if (k1 >= compression / 4) {
+            return logOdds;
+        }
+        return Math.min(logOdds, (Math.sin(k1 * 2 * Math.PI / compression) + 1) / 2);
+    }
+
+    private static void mergeSorted(double[] m1, double[] w1, int n1,
+                                    double[] m2, double[] w2, int n2,
+                                    double[] m, double[] w) {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < n1 && j < n2) {
+            if (m1[i] <= m2[j]) {
+                m[k] = m1[i];
+                w[k++] = w1[i++];
+            } else {
+                m[k] = m2[j];
+                w[k++] = w2[j++];
+            }
+        }
+        System.arraycopy(m1, i, m, k, n1 - i);
+        System.arraycopy(w1, i, w, k, n1 - i);
+        k += n1 - i;
+        System.arraycopy(m2, j, m, k, n2 - j);
+        System.arraycopy(w2, j, w, k, n2 - j);
+    }
+}
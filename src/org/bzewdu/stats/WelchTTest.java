@@ -0,0 +1,163 @@
+package org.bzewdu.stats;
+
+/**
+ * Welch's two-sample t-test computed from the moments a DataSet
+ * already maintains, so no sample arrays are copied. Gives the same
+ * two-sided p-value as commons-math's TTestImpl.tTest(double[],
+ * double[]), over the samples DataSet counts (negative samples are
+ * failed iterations and take no part). TTestImpl used to be given all
+ * samples, so where runs have failed iterations the p-value differs
+ * from the one it gave.
+ */
+public class WelchTTest {
+    private static final double EPSILON = 1e-15;
+    private static final int MAX_ITERATIONS = 100000;
+    private static final double HALF_LOG_2_PI = 0.5 * Math.log(2.0 * Math.PI);
+
+    // Lanczos approximation, g = 607/128
+    private static final double LANCZOS_G = 607.0 / 128.0;
+    private static final double[] LANCZOS = {
+            0.99999999999999709182,
+            57.156235665862923517,
+            -59.597960355475491248,
+            14.136097974741747174,
+            -0.49191381609762019978,
+            .33994649984811888699e-4,
+            .46523628927048575665e-4,
+            -.98374475304879564677e-4,
+            .15808870322491248884e-3,
+            -.21026444172410488319e-3,
+            .21743961811521264320e-3,
+            -.16431810653676389022e-3,
+            .84418223983852743293e-4,
+            -.26190838401581408670e-4,
+            .36899182659531622704e-5,
+    };
+
+    private WelchTTest() {
+    }
+
+    /**
+     * Welch's t statistic for the difference of the means of sample1
+     * and sample2.
+     */
+    public static double t(DataSet sample1, DataSet sample2) {
+        return t(sample1.mean(), sample2.mean(),
+                sample1.variance(), sample2.variance(),
+                sample1.numValidSamples(), sample2.numValidSamples());
+    }
+
+    /**
+     * Two-sided p-value of Welch's t-test; NaN if either sample has
+     * fewer than two valid points.
+     */
+    public static double pValue(DataSet sample1, DataSet sample2) {
+        return pValue(sample1.mean(), sample2.mean(),
+                sample1.variance(), sample2.variance(),
+                sample1.numValidSamples(), sample2.numValidSamples());
+    }
+
+    public static double t(double m1, double m2, double v1, double v2, double n1, double n2) {
+        return (m1 - m2) / Math.sqrt((v1 / n1) + (v2 / n2));
+    }
+
+    /**
+     * Welch-Satterthwaite approximation of the degrees of freedom.
+     */
+    public static double degreesOfFreedom(double v1, double v2, double n1, double n2) {
+        double a = v1 / n1;
+        double b = v2 / n2;
+        return ((a + b) * (a + b)) /
+                ((a * a) / (n1 - 1) + (b * b) / (n2 - 1));
+    }
+
+    public static double pValue(double m1, double m2, double v1, double v2, double n1, double n2) {
+        if (n1 < 2 || n2 < 2) {
+            return Double.NaN;
+        }
+        double t = Math.abs(t(m1, m2, v1, v2, n1, n2));
+        double df = degreesOfFreedom(v1, v2, n1, n2);
+        if (Double.isNaN(t) || Double.isNaN(df)) {
+            return Double.NaN;
+        }
+        return twoSidedTail(t, df);
+    }
+
+    /**
+     * P(T <= t) for Student's t distribution with df degrees of
+     * freedom.
+     */
+    public static double studentTCdf(double t, double df) {
+        double tail = twoSidedTail(Math.abs(t), df) / 2;
+        return (t < 0) ? tail : 1.0 - tail;
+    }
+
+    // P(|T| >= t) = I_{df/(df+t^2)}(df/2, 1/2)
+    private static double twoSidedTail(double t, double df) {
+        if (Double.isInfinite(t)) {
+            return 0.0;
+        }
+        return regularizedBeta(df / (df + t * t), df / 2.0, 0.5);
+    }
+
+    static double regularizedBeta(double x, double a, double b) {
+        if (x <= 0.0) {
+            return 0.0;
+        }
+        if (x >= 1.0) {
+            return 1.0;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) +
+                a * Math.log(x) + b * Math.log1p(-x));
+        // The continued fraction converges fastest on this side
+        if (x < (a + 1.0) / (a + b + 2.0)) {
+            return front * betaContinuedFraction(x, a, b) / a;
+        }
+        return 1.0 - front * betaContinuedFraction(1.0 - x, b, a) / b;
+    }
+
+    // Modified Lentz evaluation of the incomplete beta continued
+    // fraction
+    private static double betaContinuedFraction(double x, double a, double b) {
+        double tiny = 1e-300;
+        double qab = a + b;
+        double qap = a + 1.0;
+        double qam = a - 1.0;
+        double c = 1.0;
+        double d = 1.0 - qab * x / qap;
+        if (Math.abs(d) < tiny) d = tiny;
+        d = 1.0 / d;
+        double h = d;
+        for (int m = 1; m <= MAX_ITERATIONS; m++) {
+            int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((qam + m2) * (a + m2));
+            d = 1.0 + aa * d;
+            if (Math.abs(d) < tiny) d = tiny;
+            c = 1.0 + aa / c;
+            if (Math.abs(c) < tiny) c = tiny;
+            d = 1.0 / d;
+            h *= d * c;
+            aa = -(a + m) * (qab + m) * x / ((a + m2) * (qap + m2));
+            d = 1.0 + aa * d;
+            if (Math.abs(d) < tiny) d = tiny;
+            c = 1.0 + aa / c;
+            if (Math.abs(c) < tiny) c = tiny;
+            d = 1.0 / d;
+            double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1.0) < EPSILON) {
+                return h;
+            }
+        }
+        return h;
+    }
+
+    static double logGamma(double x) {
+        double sum = LANCZOS[0];
+        for (int i = 1; i < LANCZOS.length; i++) {
+            sum += LANCZOS[i] / (x + i);
+        }
+        double tmp = x + LANCZOS_G + 0.5;
+        return ((x + 0.5) * Math.log(tmp)) - tmp + HALF_LOG_2_PI + Math.log(sum / x);
+    }
+}
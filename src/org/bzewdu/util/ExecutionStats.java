@@ -0,0 +1,229 @@
+package org.bzewdu.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.LongAdder;
+
+// Accounts for where a comparison spends its time: listing results
+// directories, parsing results files, computing statistics and writing
+// the report. Every phase is recorded as a Flight Recorder event in the
+// "compareStats" category whenever a recording is running, e.g. with
+// -XX:StartFlightRecording; the counters behind Compare's --stats
+// summary are only kept once setEnabled(true) was called. Phase times
+// are summed over all threads, so with -j, -t or -c they can add up to
+// more than the wall time.
+
+public class ExecutionStats {
+    public enum Phase {
+        LISTING("Listing"),
+        PARSING("Parsing"),
+        STATISTICS("Statistics"),
+        OUTPUT("Output");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static final LongAdder[] calls = newAdders(Phase.values().length);
+    private static final LongAdder[] nanos = newAdders(Phase.values().length);
+    private static final LongAdder directories = new LongAdder();
+    private static final LongAdder files = new LongAdder();
+    private static final LongAdder bytes = new LongAdder();
+    private static final LongAdder samples = new LongAdder();
+
+    private ExecutionStats() {
+    }
+
+    private static LongAdder[] newAdders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ExecutionStats.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing one piece of work in the given phase; path names
+     * the directory or benchmark it concerns.
+     */
+    public static Timer start(Phase phase, String path) {
+        return new Timer(phase, path);
+    }
+
+    // One timed piece of work and its Flight Recorder event
+    public static class Timer {
+        private final Phase phase;
+        private final long start;
+        private final PhaseEvent event;
+
+        Timer(Phase phase, String path) {
+            this.phase = phase;
+            switch (phase) {
+                case LISTING:
+                    event = new ListingEvent();
+                    break;
+                case PARSING:
+                    event = new ParsingEvent();
+                    break;
+                case STATISTICS:
+                    event = new StatisticsEvent();
+                    break;
+                default:
+                    event = new OutputEvent();
+                    break;
+            }
+            event.path = path;
+            event.begin();
+            start = enabled ? System.nanoTime() : 0;
+        }
+
+        public void end() {
+            end(0);
+        }
+
+        /**
+         * Ends the work, counting count items: directories found when
+         * listing, samples parsed, rows computed or written.
+         */
+        public void end(long count) {
+            if (enabled) {
+                calls[phase.ordinal()].increment();
+                nanos[phase.ordinal()].add(System.nanoTime() - start);
+                if (phase == Phase.LISTING) {
+                    directories.add(count);
+                } else if (phase == Phase.PARSING) {
+                    samples.add(count);
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.count = count;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Counts a file read, or mapped, in full.
+     */
+    public static void fileRead(long size) {
+        if (enabled) {
+            files.increment();
+            bytes.add(size);
+        }
+    }
+
+    public static long getCalls(Phase phase) {
+        return calls[phase.ordinal()].sum();
+    }
+
+    public static long getNanos(Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    public static long getDirectories() {
+        return directories.sum();
+    }
+
+    public static long getFiles() {
+        return files.sum();
+    }
+
+    public static long getBytes() {
+        return bytes.sum();
+    }
+
+    public static long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * The highest heap occupancy so far: the sum of the peak usage of
+     * all heap memory pools.
+     */
+    public static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Prints the counters in a few aligned lines.
+     */
+    public static void print(PrintStream out, long wallNanos) {
+        out.println("Execution statistics:");
+        out.printf("  %-20s%14d%n", "Directories listed", getDirectories());
+        out.printf("  %-20s%14d%n", "Files read", getFiles());
+        out.printf("  %-20s%14d%n", "Bytes read", getBytes());
+        out.printf("  %-20s%14d%n", "Samples parsed", getSamples());
+        out.printf("  %-20s%14s%14s%n", "Phase", "Calls", "Time (ms)");
+        for (Phase phase : Phase.values()) {
+            out.printf("  %-20s%14d%14.1f%n", phase.getLabel(), getCalls(phase), getNanos(phase) / 1e6);
+        }
+        out.printf("  %-20s%28.1f%n", "Wall time (ms)", wallNanos / 1e6);
+        out.printf("  %-20s%28.1f%n", "Peak heap (MB)", getPeakHeap() / (1024.0 * 1024.0));
+    }
+
+    @Category("compareStats")
+    @StackTrace(false)
+    abstract static class PhaseEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Count")
+        long count;
+    }
+
+    @Name("org.bzewdu.Listing")
+    @Label("Results Directory Listing")
+    @Description("Listing of the results.* subdirectories of a directory; count is the number found")
+    static class ListingEvent extends PhaseEvent {
+    }
+
+    @Name("org.bzewdu.Parsing")
+    @Label("Results Parsing")
+    @Description("Parsing of the results or subresults of a directory; count is the number of samples")
+    static class ParsingEvent extends PhaseEvent {
+    }
+
+    @Name("org.bzewdu.Statistics")
+    @Label("Benchmark Statistics")
+    @Description("Statistics of a benchmark and its sub-benchmarks; count is the number of rows")
+    static class StatisticsEvent extends PhaseEvent {
+    }
+
+    @Name("org.bzewdu.Output")
+    @Label("Report Output")
+    @Description("Formatting and writing of report rows; count is the number of rows")
+    static class OutputEvent extends PhaseEvent {
+    }
+}
@@ -0,0 +1,372 @@
+package org.bzewdu.util;
+
+import org.bzewdu.stats.DataSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Reads a results.* or subresults.* file the way java.util.Properties
+// would, but without building a String for every value. The file is
+// read through a FileChannel into one byte array and split into
+// key/value spans in place; numeric values, including long
+// space-separated score lists, are parsed straight from those bytes.
+//
+// Lines that use backslash escapes or continuations are decoded
+// exactly as Properties.load does and kept as Strings; everything else
+// is only turned into a String when asked for with getProperty().
+
+public class PropertiesReader {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+            1e21, 1e22
+    };
+
+    private final byte[] buf;
+    private final Map<String, Value> values = new LinkedHashMap<String, Value>();
+
+    // Either a span of buf or, for escaped lines, the decoded String
+    static class Value {
+        final int start;
+        final int end;
+        final String decoded;
+
+        Value(int start, int end, String decoded) {
+            this.start = start;
+            this.end = end;
+            this.decoded = decoded;
+        }
+    }
+
+    public PropertiesReader(byte[] buf, int length) {
+        this.buf = buf;
+        parse(length);
+    }
+
+    public static PropertiesReader read(File file) throws IOException {
+        byte[] archived = ResultsManifest.contents(file);
+        if (archived != null) {
+            ExecutionStats.fileRead(archived.length);
+            return new PropertiesReader(archived, archived.length);
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            }
+            ExecutionStats.fileRead(bytes.position());
+            return new PropertiesReader(bytes.array(), bytes.position());
+        } finally {
+            in.close();
+        }
+    }
+
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    public String getProperty(String key) {
+        Value v = values.get(key);
+        if (v == null) {
+            return null;
+        }
+        if (v.decoded != null) {
+            return v.decoded;
+        }
+        return new String(buf, v.start, v.end - v.start, ISO_8859_1);
+    }
+
+    /**
+     * Parses the value of key as a double, with the same result as
+     * Double.parseDouble(getProperty(key)).
+     */
+    public double getDouble(String key) throws NumberFormatException {
+        Value v = values.get(key);
+        if (v == null) {
+            throw new NumberFormatException("Missing property " + key);
+        }
+        if (v.decoded != null) {
+            return Double.parseDouble(v.decoded);
+        }
+        return parseDouble(buf, v.start, v.end);
+    }
+
+    public int getInt(String key) throws NumberFormatException {
+        return Integer.parseInt(getProperty(key));
+    }
+
+    /**
+     * Parses the space-separated numbers in the value of key and adds
+     * them to data. Runs of spaces count as one separator.
+     */
+    public void getDoubles(String key, DataSet data) throws NumberFormatException {
+        Value v = values.get(key);
+        if (v == null) {
+            throw new NumberFormatException("Missing property " + key);
+        }
+        if (v.decoded != null) {
+            for (String s : v.decoded.split(" ")) {
+                if (s.length() > 0) {
+                    data.add(Double.parseDouble(s));
+                }
+            }
+            return;
+        }
+        int i = v.start;
+        while (i < v.end) {
+            while (i < v.end && buf[i] == ' ') {
+                i++;
+            }
+            int start = i;
+            while (i < v.end && buf[i] != ' ') {
+                i++;
+            }
+            if (i > start) {
+                data.add(parseDouble(buf, start, i));
+            }
+        }
+    }
+
+    // Follows Properties.LineReader.readLine() and Properties.load0()
+    // step for step. Lines without a backslash are never copied.
+    private void parse(int limit) {
+        int off = 0;
+        while (true) {
+            int len = 0;
+            int lineStart = 0;
+            char[] lineBuf = null;
+            boolean skipWhiteSpace = true;
+            boolean appendedLineBegin = false;
+            boolean precedingBackslash = false;
+            while (true) {
+                if (off >= limit) {
+                    if (len > 0) {
+                        addLine(lineStart, lineBuf, precedingBackslash ? len - 1 : len);
+                    }
+                    return;
+                }
+                char c = (char) (buf[off++] & 0xff);
+                if (skipWhiteSpace) {
+                    if (c == ' ' || c == '\t' || c == '\f') {
+                        continue;
+                    }
+                    if (!appendedLineBegin && (c == '\r' || c == '\n')) {
+                        continue;
+                    }
+                    skipWhiteSpace = false;
+                    appendedLineBegin = false;
+                }
+                if (len == 0 && (c == '#' || c == '!')) {
+                    // Comment; consume the rest of the line
+                    while (off < limit && buf[off] != '\r' && buf[off] != '\n') {
+                        off++;
+                    }
+                    off++;
+                    skipWhiteSpace = true;
+                    continue;
+                }
+                if (c != '\n' && c != '\r') {
+                    if (lineBuf == null) {
+                        if (len == 0) {
+                            lineStart = off - 1;
+                        }
+                        if (c == '\\') {
+                            // Escapes or a continuation follow; switch to
+                            // a private copy of the line
+                            lineBuf = new char[len + limit - off + 1];
+                            for (int i = 0; i < len; i++) {
+                                lineBuf[i] = (char) (buf[lineStart + i] & 0xff);
+                            }
+                        }
+                    }
+                    if (lineBuf != null) {
+                        lineBuf[len] = c;
+                    }
+                    len++;
+                    precedingBackslash = (c == '\\') ? !precedingBackslash : false;
+                } else {
+                    if (len == 0) {
+                        skipWhiteSpace = true;
+                        continue;
+                    }
+                    if (off >= limit) {
+                        addLine(lineStart, lineBuf, precedingBackslash ? len - 1 : len);
+                        return;
+                    }
+                    if (precedingBackslash) {
+                        // Backslash at EOL is not part of the line
+                        len -= 1;
+                        skipWhiteSpace = true;
+                        appendedLineBegin = true;
+                        precedingBackslash = false;
+                        if (c == '\r' && buf[off] == '\n') {
+                            off++;
+                        }
+                    } else {
+                        addLine(lineStart, lineBuf, len);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addLine(int lineStart, char[] lineBuf, int limit) {
+        int keyLen = 0;
+        int valueStart = limit;
+        boolean hasSeparator = false;
+        boolean precedingBackslash = false;
+        while (keyLen < limit) {
+            char c = charAt(lineStart, lineBuf, keyLen);
+            if ((c == '=' || c == ':') && !precedingBackslash) {
+                valueStart = keyLen + 1;
+                hasSeparator = true;
+                break;
+            } else if ((c == ' ' || c == '\t' || c == '\f') && !precedingBackslash) {
+                valueStart = keyLen + 1;
+                break;
+            }
+            precedingBackslash = (c == '\\') ? !precedingBackslash : false;
+            keyLen++;
+        }
+        while (valueStart < limit) {
+            char c = charAt(lineStart, lineBuf, valueStart);
+            if (c != ' ' && c != '\t' && c != '\f') {
+                if (!hasSeparator && (c == '=' || c == ':')) {
+                    hasSeparator = true;
+                } else {
+                    break;
+                }
+            }
+            valueStart++;
+        }
+        if (lineBuf == null) {
+            String key = new String(buf, lineStart, keyLen, ISO_8859_1);
+            values.put(key, new Value(lineStart + valueStart, lineStart + limit, null));
+        } else {
+            String key = unescape(lineBuf, 0, keyLen);
+            values.put(key, new Value(0, 0, unescape(lineBuf, valueStart, limit)));
+        }
+    }
+
+    private char charAt(int lineStart, char[] lineBuf, int i) {
+        return (lineBuf != null) ? lineBuf[i] : (char) (buf[lineStart + i] & 0xff);
+    }
+
+    private static String unescape(char[] in, int start, int end) {
+        StringBuilder out = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = in[i++];
+            if (c == '\\' && i < end) {
+                c = in[i++];
+                if (c == 'u') {
+                    int value = 0;
+                    for (int j = 0; j < 4; j++) {
+                        if (i >= end) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        int digit = Character.digit(in[i++], 16);
+                        if (digit < 0) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        value = (value << 4) + digit;
+                    }
+                    out.append((char) value);
+                } else {
+                    if (c == 't') c = '\t';
+                    else if (c == 'r') c = '\r';
+                    else if (c == 'n') c = '\n';
+                    else if (c == 'f') c = '\f';
+                    out.append(c);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Parses an ASCII decimal number between start and end. Plain
+     * decimals of up to 15 significant digits are converted exactly
+     * without allocating; anything else is handed to
+     * Double.parseDouble.
+     */
+    static double parseDouble(byte[] b, int start, int end) throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = (b[i] == '-');
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    if (++digits > 15) {
+                        return slowParseDouble(b, start, end);
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return slowParseDouble(b, start, end);
+        }
+        if (i < end && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (b[i] == '-' || b[i] == '+')) {
+                negativeExponent = (b[i] == '-');
+                i++;
+            }
+            int expStart = i;
+            int exp = 0;
+            while (i < end && b[i] >= '0' && b[i] <= '9' && exp < 1000) {
+                exp = exp * 10 + (b[i++] - '0');
+            }
+            if (i == expStart) {
+                return slowParseDouble(b, start, end);
+            }
+            exponent += negativeExponent ? -exp : exp;
+        }
+        if (i != end || exponent < -22 || exponent > 22) {
+            return slowParseDouble(b, start, end);
+        }
+        double value = (exponent < 0) ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        return negative ? -value : value;
+    }
+
+    private static double slowParseDouble(byte[] b, int start, int end) throws NumberFormatException {
+        return Double.parseDouble(new String(b, start, end - start, ISO_8859_1));
+    }
+}
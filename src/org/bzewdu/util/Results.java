@@ -5,9 +5,9 @@ import org.bzewdu.stats.CompareUtils;
 import org.bzewdu.stats.IncomparableResultsException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Properties;
 import java.util.Set;
 
 public class Results {
@@ -34,13 +34,8 @@ public class Results {
      */
     public Results(File directory) throws IOException {
         this.directory = directory;
-        File[] files = directory.listFiles(new FileFilter() {
-            public boolean accept(File path) {
-                return (path.getName().startsWith("results.") &&
-                        (!path.isDirectory()));
-            }
-        });
-        if (files.length == 0) {
+        File[] files = ResultsManifest.files(directory, "results.");
+        if (files == null || files.length == 0) {
             throw new IOException("No results file found in directory " + directory);
         }
         if (files.length != 1) {
@@ -48,32 +43,25 @@ public class Results {
                     " in directory " + directory);
         }
         name = files[0].getName().substring("results.".length());
-        Properties props = new Properties();
-        InputStream in = new BufferedInputStream(new FileInputStream(files[0]));
-        props.load(in);
-        in.close();
         // Parse
         try {
-            isWorkload = (Integer.parseInt(props.getProperty("is_workload")) == 1);
-            isHigherBetter = (Integer.parseInt(props.getProperty("is_higher_better")) == 1);
-            score = Float.parseFloat(props.getProperty("score"));
+            PropertiesReader props = PropertiesReader.read(files[0]);
+            isWorkload = (props.getInt("is_workload") == 1);
+            isHigherBetter = (props.getInt("is_higher_better") == 1);
+            score = props.getDouble("score");
             scores = new DataSet();
-            for (String s : props.getProperty("scores").split(" ")) {
-                scores.add(Double.parseDouble(s));
-            }
+            props.getDoubles("scores", scores);
             if (isWorkload()) {
                 weights = new DataSet();
-                for (String s : props.getProperty("weights").split(" ")) {
-                    weights.add(Double.parseDouble(s));
-                }
-                failed = (Integer.parseInt(props.getProperty("failed")) == 1);
+                props.getDoubles("weights", weights);
+                failed = (props.getInt("failed") == 1);
             } else {
-                mean = Float.parseFloat(props.getProperty("mean"));
-                stddev = Float.parseFloat(props.getProperty("stdev"));
-                var = Float.parseFloat(props.getProperty("var"));
-                attempts = Integer.parseInt(props.getProperty("attempts"));
-                successes = Integer.parseInt(props.getProperty("successes"));
-                failures = Integer.parseInt(props.getProperty("failures"));
+                mean = props.getDouble("mean");
+                stddev = props.getDouble("stdev");
+                var = props.getDouble("var");
+                attempts = props.getInt("attempts");
+                successes = props.getInt("successes");
+                failures = props.getInt("failures");
                 higherSubresults = new HashSet<String>();
                 higherSubresults.addAll(Arrays.asList(props.getProperty("subresults_higher").split(" ")));
                 // Handle case where string was empty
@@ -88,6 +76,134 @@ public class Results {
         }
     }
 
+    /**
+     * Lists the results.* subdirectories of the given directory in
+     * sorted order.
+     */
+    public static File[] listResultDirectories(File baseDir) throws IOException {
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.LISTING, baseDir.getPath());
+        File[] dirs = null;
+        try {
+            dirs = listResultDirectories0(baseDir);
+            return dirs;
+        } finally {
+            timer.end((dirs != null) ? dirs.length : 0);
+        }
+    }
+
+    private static File[] listResultDirectories0(File baseDir) throws IOException {
+        ResultsIndex.Entry entry = ResultsIndex.lookup(baseDir);
+        if (entry != null) {
+            return entry.children(baseDir);
+        }
+        File[] dirs = ResultsManifest.resultDirectories(baseDir);
+        if (dirs != null) {
+            return dirs;
+        }
+        dirs = baseDir.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return (f.getName().startsWith("results.") &&
+                        f.isDirectory());
+            }
+        });
+        if (dirs == null) {
+            throw new IOException("Directory not found: " + baseDir);
+        }
+        Arrays.sort(dirs);
+        return dirs;
+    }
+
+    /**
+     * Reads the results in the specified directory from an open
+     * ResultsIndex if one covers it, otherwise parses the results.*
+     * file as the constructor does.
+     */
+    public static Results load(File directory) throws IOException {
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.PARSING, directory.getPath());
+        long samples = 0;
+        try {
+            ResultsIndex.Entry entry = ResultsIndex.lookup(directory);
+            Results res;
+            if (entry != null && (entry.flags() & ResultsIndex.HAS_RESULTS) != 0) {
+                res = new Results(directory, entry.resultsPayload(), entry.flags());
+            } else {
+                res = new Results(directory);
+            }
+            samples = res.scores.numSamples() + (res.weights != null ? res.weights.numSamples() : 0);
+            return res;
+        } finally {
+            // A file that fails to parse still took the time
+            timer.end(samples);
+        }
+    }
+
+    /**
+     * Reads results previously stored by writeTo().
+     */
+    Results(File directory, ByteBuffer in, int flags) {
+        this.directory = directory;
+        isWorkload = (flags & ResultsIndex.IS_WORKLOAD) != 0;
+        isHigherBetter = (flags & ResultsIndex.IS_HIGHER_BETTER) != 0;
+        failed = (flags & ResultsIndex.FAILED) != 0;
+        name = ResultsIndex.readString(in);
+        score = in.getDouble();
+        scores = ResultsIndex.readColumn(in);
+        if (isWorkload) {
+            weights = ResultsIndex.readColumn(in);
+        } else {
+            mean = in.getDouble();
+            stddev = in.getDouble();
+            var = in.getDouble();
+            attempts = in.getInt();
+            successes = in.getInt();
+            failures = in.getInt();
+            higherSubresults = readNames(in);
+            lowerSubresults = readNames(in);
+        }
+    }
+
+    /**
+     * Writes these results in the ResultsIndex format and returns
+     * the flags describing them.
+     */
+    int writeTo(DataOutputStream out) throws IOException {
+        ResultsIndex.writeString(out, name);
+        out.writeDouble(score);
+        ResultsIndex.writeColumn(out, scores);
+        if (isWorkload) {
+            ResultsIndex.writeColumn(out, weights);
+        } else {
+            out.writeDouble(mean);
+            out.writeDouble(stddev);
+            out.writeDouble(var);
+            out.writeInt(attempts);
+            out.writeInt(successes);
+            out.writeInt(failures);
+            writeNames(out, higherSubresults);
+            writeNames(out, lowerSubresults);
+        }
+        return ResultsIndex.HAS_RESULTS |
+                (isWorkload ? ResultsIndex.IS_WORKLOAD : 0) |
+                (isHigherBetter ? ResultsIndex.IS_HIGHER_BETTER : 0) |
+                (failed ? ResultsIndex.FAILED : 0);
+    }
+
+    private static void writeNames(DataOutputStream out, Set<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String s : names) {
+            ResultsIndex.writeString(out, s);
+        }
+    }
+
+    private static Set<String> readNames(ByteBuffer in) {
+        int n = in.getInt();
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < n; i++) {
+            names.add(ResultsIndex.readString(in));
+        }
+        return names;
+    }
+
     public File getDirectory() {
         return directory;
     }
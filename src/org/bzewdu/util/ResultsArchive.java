@@ -0,0 +1,546 @@
+package org.bzewdu.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+// Serves results trees straight out of .zip, .tar, .tar.gz and .tgz
+// archives, with nothing extracted to disk. A path that runs through an
+// archive, such as build-123.tar.gz/results.alpha, names the directory
+// results.alpha inside it; the archive itself can be a run root.
+//
+// Opening an archive registers its directory tree as a ResultsManifest,
+// so listing and finding files work as for a scanned run. Tar archives
+// are read in one streaming pass that notes where the results.* and
+// subresults.* files are and skips everything else, such as logs; the
+// files of a compressed tar are copied to a temporary spool file on
+// the way. Either way no file contents stay on the heap: each file is
+// read back from the archive or the spool when it is parsed. Zip
+// archives are opened as a zip FileSystem and their files are read on
+// demand. An archive is opened again only once its modification time
+// has changed.
+
+public class ResultsArchive {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BLOCK_SIZE = 512;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Open zip file systems, and the channels tar entries are read
+    // back from, by the normalized path of their archive
+    private static final Map<String, Closeable> sources = new HashMap<String, Closeable>();
+
+    private ResultsArchive() {
+    }
+
+    public static boolean isArchiveName(String name) {
+        return name.endsWith(".zip") || name.endsWith(".tar") ||
+                name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * Returns the archive that the given path is, or runs through, or
+     * null if there is none.
+     */
+    public static File findArchive(File path) {
+        for (File f = path.getAbsoluteFile(); f != null; f = f.getParentFile()) {
+            if (isArchiveName(f.getName()) && f.isFile()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the archive the given path runs through, if any, unless it
+     * is open and unchanged. Returns whether there was an archive.
+     * Errors reading it are reported to stderr and leave it closed, so
+     * that the paths inside it are simply not found.
+     */
+    static boolean openContaining(File path) {
+        File archive = findArchive(path);
+        if (archive == null) {
+            return false;
+        }
+        try {
+            open(archive);
+        } catch (IOException e) {
+            System.err.println("Cannot read archive " + archive + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Reads the given archive's tree into a ResultsManifest, unless it
+     * is open and unchanged.
+     */
+    public static synchronized void open(File archive) throws IOException {
+        long lastModified = archive.lastModified();
+        ResultsManifest.Node root = ResultsManifest.registered(archive);
+        if (root != null && root.lastModified == lastModified) {
+            return;
+        }
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.LISTING, archive.getPath());
+        Tree tree = new Tree(archive, lastModified);
+        try {
+            String key = ResultsManifest.normalize(archive);
+            Closeable old = sources.remove(key);
+            if (archive.getName().endsWith(".zip")) {
+                sources.put(key, readZip(archive, tree));
+            } else {
+                sources.put(key, readTar(archive, tree));
+            }
+            tree.register();
+            if (old != null) {
+                old.close();
+            }
+        } finally {
+            timer.end(tree.nodes.size());
+        }
+    }
+
+    /**
+     * Closes the given archive, by normalized path, once its manifest
+     * is dropped.
+     */
+    static synchronized void close(String path) {
+        Closeable source = sources.remove(path);
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                System.err.println("Cannot close archive " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static FileChannel readTar(File archive, Tree tree) throws IOException {
+        boolean compressed = !archive.getName().endsWith(".tar");
+        FileChannel channel;
+        if (compressed) {
+            channel = spool();
+        } else {
+            channel = new RandomAccessFile(archive, "r").getChannel();
+        }
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE);
+            try {
+                if (compressed) {
+                    in = new GZIPInputStream(in, BUFFER_SIZE);
+                }
+                readTar(new Position(in), tree, channel, compressed);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    // An anonymous temporary file, gone once its channel is closed
+    // where the platform allows deleting open files
+    private static FileChannel spool() throws IOException {
+        File file = File.createTempFile("compare-archive", ".spool");
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+        return channel;
+    }
+
+    // Where one results.* or subresults.* file of a tar archive is:
+    // a range of the archive, or of the spool its files were copied to
+    static class Slice {
+        private final FileChannel channel;
+        private final long offset;
+        private final int length;
+
+        Slice(FileChannel channel, long offset, int length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        byte[] read() throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) {
+                    throw new EOFException("Truncated archive entry");
+                }
+            }
+            return buf.array();
+        }
+    }
+
+    // Counts the bytes read or skipped so far
+    private static class Position extends FilterInputStream {
+        long position;
+
+        Position(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    // The directories of one archive as manifest nodes. All of them take
+    // the archive's modification time, so that cached results are only
+    // re-read when the archive changes.
+    private static class Tree {
+        final File archive;
+        final String rootPath;
+        final long lastModified;
+        final Map<String, ResultsManifest.Node> nodes = new HashMap<String, ResultsManifest.Node>();
+
+        Tree(File archive, long lastModified) {
+            this.archive = archive;
+            this.rootPath = ResultsManifest.normalize(archive);
+            this.lastModified = lastModified;
+            nodes.put(rootPath, new ResultsManifest.Node(lastModified));
+        }
+
+        // entry is a clean relative path, "" for the root
+        ResultsManifest.Node directory(String entry) {
+            String path = path(entry);
+            ResultsManifest.Node node = nodes.get(path);
+            if (node == null) {
+                int slash = entry.lastIndexOf('/');
+                ResultsManifest.Node parent = directory((slash < 0) ? "" : entry.substring(0, slash));
+                String name = entry.substring(slash + 1);
+                node = new ResultsManifest.Node(lastModified);
+                nodes.put(path, node);
+                if (name.startsWith("results.")) {
+                    parent.resultDirectories.add(new File(path));
+                    parent.names.add(name);
+                }
+            }
+            return node;
+        }
+
+        void file(String entry, Object contents) {
+            int slash = entry.lastIndexOf('/');
+            ResultsManifest.Node parent = directory((slash < 0) ? "" : entry.substring(0, slash));
+            String name = entry.substring(slash + 1);
+            if (parent.contents == null) {
+                parent.contents = new HashMap<String, Object>();
+            }
+            if (parent.contents.put(name, contents) == null) {
+                parent.files.add(new File(path(entry)));
+                parent.names.add(name);
+            }
+        }
+
+        private String path(String entry) {
+            return entry.isEmpty() ? rootPath : rootPath + File.separator + entry.replace('/', File.separatorChar);
+        }
+
+        void register() {
+            for (ResultsManifest.Node node : nodes.values()) {
+                Collections.sort(node.resultDirectories);
+            }
+            ResultsManifest.register(archive, nodes);
+        }
+    }
+
+    private static boolean isResultsFile(String entry) {
+        String name = entry.substring(entry.lastIndexOf('/') + 1);
+        return name.startsWith("results.") || name.startsWith("subresults.");
+    }
+
+    // Strips leading "./" and "/" and trailing "/"; null for entries
+    // that would leave the archive
+    private static String clean(String entry) {
+        List<String> parts = new ArrayList<String>();
+        for (String part : entry.split("/")) {
+            if (part.equals("..")) {
+                return null;
+            }
+            if (!part.isEmpty() && !part.equals(".")) {
+                parts.add(part);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append((sb.length() > 0) ? "/" : "").append(part);
+        }
+        return sb.toString();
+    }
+
+    private static FileSystem readZip(File archive, final Tree tree) throws IOException {
+        FileSystem fs = FileSystems.newFileSystem(archive.toPath(), (ClassLoader) null);
+        try {
+            final Path top = fs.getPath("/");
+            Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String entry = clean(top.relativize(dir).toString());
+                    if (entry != null) {
+                        tree.directory(entry);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String entry = clean(top.relativize(file).toString());
+                    if (entry != null && attrs.isRegularFile() && isResultsFile(entry)) {
+                        tree.file(entry, file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            fs.close();
+            throw e;
+        }
+        return fs;
+    }
+
+    // Reads ustar archives, with the GNU long name and POSIX pax
+    // extensions for paths longer than the header holds. The results
+    // files are copied to the channel if copy is set, otherwise the
+    // channel is the archive itself.
+    private static void readTar(Position in, Tree tree, FileChannel channel, boolean copy) throws IOException {
+        long spooled = 0;
+        byte[] header = new byte[BLOCK_SIZE];
+        String nextName = null;
+        long nextSize = -1;
+        while (readBlock(in, header)) {
+            if (isZero(header)) {
+                break;
+            }
+            checkHeader(header);
+            char type = (char) header[156];
+            long size = (nextSize >= 0) ? nextSize : number(header, 124, 12);
+            if (type == 'L') {
+                nextName = cString(readFully(in, size), 0, (int) size);
+                skipPadding(in, size);
+                continue;
+            }
+            if (type == 'x') {
+                Map<String, String> pax = pax(readFully(in, size));
+                skipPadding(in, size);
+                if (pax.containsKey("path")) {
+                    nextName = pax.get("path");
+                }
+                if (pax.containsKey("size")) {
+                    nextSize = Long.parseLong(pax.get("size"));
+                }
+                continue;
+            }
+            String name = (nextName != null) ? nextName : name(header);
+            nextName = null;
+            nextSize = -1;
+            String entry = clean(name);
+            if (type == '5' && entry != null) {
+                tree.directory(entry);
+            } else if ((type == '0' || type == '\0' || type == '7') && entry != null && !entry.isEmpty() &&
+                    isResultsFile(entry)) {
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Archive entry too large: " + size + " bytes");
+                }
+                if (copy) {
+                    ByteBuffer bytes = ByteBuffer.wrap(readFully(in, size));
+                    tree.file(entry, new Slice(channel, spooled, (int) size));
+                    while (bytes.hasRemaining()) {
+                        spooled += channel.write(bytes, spooled);
+                    }
+                } else {
+                    tree.file(entry, new Slice(channel, in.position, (int) size));
+                    skip(in, size);
+                }
+                skipPadding(in, size);
+                continue;
+            }
+            skip(in, size);
+            skipPadding(in, size);
+        }
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int n = 0;
+        while (n < block.length) {
+            int count = in.read(block, n, block.length - n);
+            if (count < 0) {
+                if (n == 0) {
+                    // Archives cut short of their end blocks still end here
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            n += count;
+        }
+        return true;
+    }
+
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Archive entry too large: " + size + " bytes");
+        }
+        byte[] bytes = new byte[(int) size];
+        int n = 0;
+        while (n < bytes.length) {
+            int count = in.read(bytes, n, bytes.length - n);
+            if (count < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            n += count;
+        }
+        return bytes;
+    }
+
+    private static void skip(InputStream in, long size) throws IOException {
+        while (size > 0) {
+            long count = in.skip(size);
+            if (count <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                count = 1;
+            }
+            size -= count;
+        }
+    }
+
+    private static void skipPadding(InputStream in, long size) throws IOException {
+        int rest = (int) (size % BLOCK_SIZE);
+        if (rest != 0) {
+            skip(in, BLOCK_SIZE - rest);
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The checksum is the sum of the header bytes with the checksum
+    // field itself counted as spaces
+    private static void checkHeader(byte[] header) throws IOException {
+        long sum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+        }
+        if (sum != number(header, 148, 8)) {
+            throw new IOException("Not a tar archive, or a corrupt one");
+        }
+    }
+
+    private static String name(byte[] header) {
+        String name = cString(header, 0, 100);
+        if (cString(header, 257, 6).startsWith("ustar")) {
+            String prefix = cString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, UTF8);
+    }
+
+    // Octal, space or NUL terminated, or big-endian base-256 if the
+    // first byte has its top bit set
+    private static long number(byte[] header, int offset, int length) {
+        long value = 0;
+        if ((header[offset] & 0x80) != 0) {
+            value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                value = (value << 3) + (b - '0');
+            } else if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    // Records of the form "<length> <key>=<value>\n"
+    private static Map<String, String> pax(byte[] bytes) throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        int pos = 0;
+        while (pos < bytes.length) {
+            int space = pos;
+            while (space < bytes.length && bytes[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(bytes, pos, space - pos, UTF8));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad pax header");
+            }
+            if (length <= 0 || pos + length > bytes.length) {
+                throw new IOException("Bad pax header");
+            }
+            String record = new String(bytes, space + 1, pos + length - space - 2, UTF8);
+            int eq = record.indexOf('=');
+            if (eq > 0) {
+                values.put(record.substring(0, eq), record.substring(eq + 1));
+            }
+            pos += length;
+        }
+        return values;
+    }
+}
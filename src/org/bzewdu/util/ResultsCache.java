@@ -0,0 +1,151 @@
+package org.bzewdu.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU cache of parsed Results, Subresults and results
+// directory listings. Entries are keyed by normalized absolute path,
+// as in ResultsManifest, so a lookup costs no system calls. Parsed
+// Results and Subresults are only reused while neither the directory
+// nor any of its results.* and subresults.* files has a newer
+// modification time, so files rewritten in place are parsed again on
+// the next read of their run, which scans it again. Listings are
+// reused while the directory's own time is unchanged.
+// Safe for use from several threads; parsing happens outside the lock.
+
+public class ResultsCache {
+    public static final int DEFAULT_SIZE = 4096;
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private volatile double sketchCompression;
+    private int hits;
+    private int misses;
+
+    static class Entry {
+        final long lastModified;
+        final Object value;
+
+        Entry(long lastModified, Object value) {
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+
+    public ResultsCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most maxEntries parsed objects. A
+     * size of 0 disables caching.
+     */
+    public ResultsCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResultsCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Makes Subresults keep sketched DataSets with the given
+     * compression instead of their samples; 0 keeps the samples.
+     * Subresults cached so far are dropped.
+     */
+    public void setSketchCompression(double compression) {
+        sketchCompression = compression;
+        clear();
+    }
+
+    public double getSketchCompression() {
+        return sketchCompression;
+    }
+
+    public Results getResults(File directory) throws IOException {
+        String key = "R:" + ResultsManifest.normalize(directory);
+        long stamp = ResultsManifest.contentModified(directory);
+        Results res = (Results) lookup(key, stamp);
+        if (res == null) {
+            res = Results.load(directory);
+            store(key, stamp, res);
+        }
+        return res;
+    }
+
+    public Subresults getSubresults(File directory, boolean parseComposite) throws IOException {
+        String key = (parseComposite ? "C:" : "S:") + ResultsManifest.normalize(directory);
+        long stamp = ResultsManifest.contentModified(directory);
+        Subresults sub = (Subresults) lookup(key, stamp);
+        if (sub == null) {
+            sub = Subresults.load(directory, parseComposite, sketchCompression);
+            store(key, stamp, sub);
+        }
+        return sub;
+    }
+
+    /**
+     * Returns the sorted results.* subdirectories of baseDir, as
+     * Results.listResultDirectories() would.
+     */
+    public File[] getResultDirectories(File baseDir) throws IOException {
+        String key = "L:" + ResultsManifest.normalize(baseDir);
+        long stamp = ResultsManifest.lastModified(baseDir);
+        File[] dirs = (File[]) lookup(key, stamp);
+        if (dirs == null) {
+            dirs = Results.listResultDirectories(baseDir);
+            store(key, stamp, dirs);
+        }
+        return dirs.clone();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Drops everything cached for the given directory, for changes
+     * that do not show in the modification times, e.g. ones made
+     * within the filesystem's time resolution.
+     */
+    public void invalidate(File directory) throws IOException {
+        String path = ResultsManifest.normalize(directory);
+        synchronized (this) {
+            entries.remove("R:" + path);
+            entries.remove("S:" + path);
+            entries.remove("C:" + path);
+            entries.remove("L:" + path);
+        }
+    }
+
+    private synchronized Object lookup(String key, long stamp) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.lastModified == stamp) {
+            ++hits;
+            return entry.value;
+        }
+        ++misses;
+        return null;
+    }
+
+    private synchronized void store(String key, long stamp, Object value) {
+        if (maxEntries > 0) {
+            entries.put(key, new Entry(stamp, value));
+        }
+    }
+}
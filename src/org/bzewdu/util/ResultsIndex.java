@@ -0,0 +1,440 @@
+package org.bzewdu.util;
+
+import org.bzewdu.stats.DataSet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compact binary snapshot of a whole results tree: every results.*
+// directory below a run root, with its parsed Results and Subresults
+// stored as names, flags and primitive score columns. The index is
+// written to a single file in the root and read back through one
+// memory-mapped FileChannel.
+//
+// Each indexed directory records the latest modification time of the
+// directory and its results.* and subresults.* files. A directory
+// whose time no longer matches, e.g. because a file was rewritten in
+// place, is considered stale and is parsed from its Properties files
+// as usual until the index is rebuilt. A rebuilt index, or one
+// created since, is mapped again on the next open() of its root.
+// Indexes of an older format, and files that are not a complete
+// index, are ignored.
+
+public class ResultsIndex {
+    public static final String FILE_NAME = ".compare-index";
+
+    private static final int MAGIC = 0x43534958; // "CSIX"
+    // 2: the HAS_COMPOSITE flag is actually stored
+    private static final int VERSION = 2;
+    // Header, record length and the empty path of the root record
+    private static final int ROOT_TIME_OFFSET = 20;
+
+    static final int HAS_RESULTS = 1;
+    static final int IS_WORKLOAD = 2;
+    static final int IS_HIGHER_BETTER = 4;
+    static final int FAILED = 8;
+    static final int HAS_COMPOSITE = 16;
+    static final int NO_COMPOSITE = 32;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // The modification time of each registered index file, 0 if absent
+    private static final Map<String, Long> stamps = new HashMap<String, Long>();
+    // Open indexes, keyed by the normalized absolute path of their root;
+    // null for roots without a usable index. As many as there are
+    // manifests are kept, dropping the least recently opened.
+    private static final Map<String, ResultsIndex> registry =
+            new LinkedHashMap<String, ResultsIndex>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, ResultsIndex> eldest) {
+                    if (size() > ResultsManifest.MAX_ROOTS) {
+                        stamps.remove(eldest.getKey());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    private final File root;
+    private final String rootPath;
+    private final ByteBuffer buffer;
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+
+    static class Node {
+        final String path;
+        final long lastModified;
+        final int offset;
+        final int flags;
+        final List<String> children = new ArrayList<String>();
+
+        Node(String path, long lastModified, int offset, int flags) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.offset = offset;
+            this.flags = flags;
+        }
+    }
+
+    private ResultsIndex(File root, ByteBuffer buffer) throws IOException {
+        this.root = root;
+        this.rootPath = normalize(root);
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a results index: " + new File(root, FILE_NAME));
+        }
+        int numNodes = buffer.getInt();
+        List<Node> byNumber = new ArrayList<Node>(numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            int length = buffer.getInt();
+            int end = buffer.position() + length;
+            String path = readString(buffer);
+            long lastModified = buffer.getLong();
+            int parent = buffer.getInt();
+            int flags = buffer.get();
+            Node node = new Node(path, lastModified, buffer.position(), flags);
+            byNumber.add(node);
+            nodes.put(path, node);
+            if (parent >= 0) {
+                byNumber.get(parent).children.add(node.path);
+            }
+            buffer.position(end);
+        }
+    }
+
+    /**
+     * Maps the index in the given run root and registers it so that
+     * Results and Subresults below the root are read from it. Returns
+     * null if the root has no index, or only one of an older format
+     * or one that cannot be read. An index that was registered before
+     * is mapped again if its file has changed since.
+     */
+    public static ResultsIndex open(File root) throws IOException {
+        String key = normalize(root);
+        File file = new File(root, FILE_NAME);
+        long stamp = file.lastModified();
+        synchronized (registry) {
+            Long registered = stamps.get(key);
+            if (registered != null && registered == stamp) {
+                return registry.get(key);
+            }
+        }
+        ResultsIndex index = null;
+        if (file.isFile()) {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                ExecutionStats.fileRead(channel.size());
+                // One written by an older version, or cut short or
+                // damaged, is read as if absent
+                if (buffer.limit() >= 8 && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+                    try {
+                        index = new ResultsIndex(root, buffer);
+                    } catch (RuntimeException e) {
+                        // A truncated record, e.g. from an interrupted
+                        // write, fails as a buffer underflow or a bad
+                        // position or length
+                        index = null;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        synchronized (registry) {
+            registry.put(key, index);
+            stamps.put(key, stamp);
+        }
+        return index;
+    }
+
+    /**
+     * Finds the open index covering the given directory.
+     */
+    static Entry lookup(File directory) {
+        synchronized (registry) {
+            if (registry.isEmpty()) {
+                return null;
+            }
+        }
+        String path = normalize(directory);
+        ResultsIndex found = null;
+        Node node = null;
+        synchronized (registry) {
+            for (ResultsIndex index : registry.values()) {
+                String relative = (index != null) ? index.relativize(path) : null;
+                if (relative != null) {
+                    found = index;
+                    node = index.nodes.get(relative);
+                    break;
+                }
+            }
+        }
+        if (node == null || node.lastModified != ResultsManifest.contentModified(directory)) {
+            return null;
+        }
+        return new Entry(found, node);
+    }
+
+    /**
+     * Stops serving the given directory from its index, e.g. because
+     * one of its files is known to have changed.
+     */
+    public static void invalidate(File directory) {
+        String path = normalize(directory);
+        synchronized (registry) {
+            for (ResultsIndex index : registry.values()) {
+                String relative = (index != null) ? index.relativize(path) : null;
+                if (relative != null) {
+                    index.nodes.remove(relative);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops serving any directory from the open indexes.
+     */
+    public static void invalidateAll() {
+        synchronized (registry) {
+            for (ResultsIndex index : registry.values()) {
+                if (index != null) {
+                    index.nodes.clear();
+                }
+            }
+        }
+    }
+
+    // A directory found in an index, positioned at its payload
+    static class Entry {
+        private final ResultsIndex index;
+        private final Node node;
+
+        Entry(ResultsIndex index, Node node) {
+            this.index = index;
+            this.node = node;
+        }
+
+        int flags() {
+            return node.flags;
+        }
+
+        // Each caller gets its own view so readers never share a
+        // position. The payload is the length of the Results record,
+        // the Results record, then the Subresults record.
+        ByteBuffer resultsPayload() {
+            ByteBuffer buf = index.buffer.duplicate();
+            buf.position(node.offset + 4);
+            return buf;
+        }
+
+        ByteBuffer subresultsPayload() {
+            ByteBuffer buf = index.buffer.duplicate();
+            buf.position(node.offset + 4 + buf.getInt(node.offset));
+            return buf;
+        }
+
+        File[] children(File directory) {
+            File[] dirs = new File[node.children.size()];
+            for (int i = 0; i < dirs.length; i++) {
+                String child = node.children.get(i);
+                dirs[i] = new File(directory, child.substring(child.lastIndexOf('/') + 1));
+            }
+            return dirs;
+        }
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public int numDirectories() {
+        return nodes.size();
+    }
+
+    private String relativize(String path) {
+        if (path.equals(rootPath)) {
+            return "";
+        }
+        if (path.startsWith(rootPath) && path.charAt(rootPath.length()) == File.separatorChar) {
+            return path.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+        }
+        return null;
+    }
+
+    private static String normalize(File f) {
+        return f.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Parses the whole results tree below root and writes its index
+     * file, replacing any existing one.
+     */
+    public static void write(File root) throws IOException {
+        File tmp = new File(root, FILE_NAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            List<byte[]> records = new ArrayList<byte[]>();
+            index(root, "", -1, records);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(records.size());
+            for (byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        } finally {
+            out.close();
+        }
+        File file = new File(root, FILE_NAME);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace index " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot write index " + file);
+        }
+        // Creating the index touched the root directory itself;
+        // record its new time so the root entry is not stale
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(ROOT_TIME_OFFSET);
+            raf.writeLong(ResultsManifest.contentModifiedOnDisk(root));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void index(File dir, String path, int parent, List<byte[]> records) throws IOException {
+        // Capture the time before reading so that a concurrent writer
+        // makes the entry stale rather than silently wrong
+        long lastModified = ResultsManifest.contentModifiedOnDisk(dir);
+        File[] resultFiles = dir.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.getName().startsWith("results.") && !f.isDirectory();
+            }
+        });
+        if (resultFiles == null) {
+            throw new IOException("Directory not found: " + dir);
+        }
+
+        ByteArrayOutput record = new ByteArrayOutput();
+        DataOutputStream out = new DataOutputStream(record);
+        writeString(out, path);
+        out.writeLong(lastModified);
+        out.writeInt(parent);
+
+        ByteArrayOutput results = new ByteArrayOutput();
+        DataOutputStream resultsOut = new DataOutputStream(results);
+        int flags = 0;
+        if (resultFiles.length == 1) {
+            flags |= new Results(dir).writeTo(resultsOut);
+            resultsOut.flush();
+        }
+        Subresults sub;
+        try {
+            sub = new Subresults(dir, true);
+        } catch (IOException e) {
+            // Leave composite parsing, and its error, to the
+            // Properties path
+            sub = new Subresults(dir, false);
+            flags |= NO_COMPOSITE;
+        }
+        // The subresults add their own flags, which precede them
+        ByteArrayOutput subresults = new ByteArrayOutput();
+        DataOutputStream subresultsOut = new DataOutputStream(subresults);
+        flags |= sub.writeTo(subresultsOut);
+        subresultsOut.flush();
+        out.writeByte(flags);
+        out.writeInt(results.size());
+        out.write(results.buffer(), 0, results.size());
+        out.write(subresults.buffer(), 0, subresults.size());
+        out.flush();
+
+        int number = records.size();
+        records.add(Arrays.copyOf(record.buffer(), record.size()));
+        for (File child : Results.listResultDirectories(dir)) {
+            String name = child.getName();
+            index(child, path.length() == 0 ? name : path + "/" + name, number, records);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, UTF8);
+        }
+        in.position(in.position() + length);
+        return s;
+    }
+
+    static void writeColumn(DataOutputStream out, DataSet data) throws IOException {
+        DoubleBuffer values = data.asReadOnlyBuffer();
+        out.writeInt(values.remaining());
+        while (values.hasRemaining()) {
+            out.writeDouble(values.get());
+        }
+    }
+
+    static DataSet readColumn(ByteBuffer in) {
+        return readColumn(in, new DataSet());
+    }
+
+    static DataSet readColumn(ByteBuffer in, DataSet data) {
+        int length = in.getInt();
+        DoubleBuffer values = in.asDoubleBuffer();
+        values.limit(length);
+        data.addAll(values);
+        in.position(in.position() + length * 8);
+        return data;
+    }
+
+    // ByteArrayOutputStream that exposes its buffer without copying
+    static class ByteArrayOutput extends java.io.ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java ResultsIndex [results dir] ...");
+            System.out.println("Writes a " + FILE_NAME + " file into each results directory.");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            try {
+                write(new File(arg));
+            } catch (IOException e) {
+                System.err.println("Error indexing " + arg + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.bzewdu.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// What a results tree looks like on disk, taken in one walk: for every
+// results.* directory below a run root, its modification time, its
+// sorted results.* subdirectories and its results.* and subresults.*
+// files with the latest of their modification times. Listing
+// directories, finding results files and checking for child
+// benchmarks then need no further system calls, which matters on
+// network filesystems where each is a round trip.
+//
+// A manifest is a snapshot. scanIfChanged() scans a run again when it
+// is read again, e.g. on a server request, only if the contents of its
+// root changed or its last scan is more than RESCAN_MILLIS old, and
+// invalidate() drops a directory that is known to have changed so that
+// it is looked at on disk until the next scan. At most MAX_ROOTS
+// manifests are kept; registering another drops the one least recently
+// opened, and closes its archive if it is one.
+//
+// ResultsArchive registers the trees inside zip and tar archives here
+// too, under paths that continue the archive's own path, together with
+// where their files are. Directories below an archive that no
+// manifest covers yet open the archive on first use.
+
+public class ResultsManifest {
+    public static final int MAX_ROOTS = 64;
+    // Changes below an unchanged run root show up after this long
+    public static final long RESCAN_MILLIS = 30000;
+
+    // Scanned directories of all manifests, by normalized absolute path
+    private static final Map<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+    // Manifests by the normalized absolute path of their root, least
+    // recently opened first
+    private static final Map<String, ResultsManifest> registry =
+            new LinkedHashMap<String, ResultsManifest>(16, 0.75f, true);
+
+    private final File root;
+    private final List<String> paths;
+    // The root's contentModified and the time of the scan
+    private final long rootModified;
+    private final long scanned;
+
+    static class Node {
+        final long lastModified;
+        // The latest of lastModified and the times of the files
+        long contentModified;
+        final List<File> resultDirectories = new ArrayList<File>();
+        final List<File> files = new ArrayList<File>();
+        final Set<String> names = new HashSet<String>();
+        // Where the files inside archives are, by name: a Path into a
+        // zip or a ResultsArchive.Slice of a tar, read on demand
+        Map<String, Object> contents;
+
+        Node(long lastModified) {
+            this.lastModified = lastModified;
+            contentModified = lastModified;
+        }
+    }
+
+    private ResultsManifest(File root, List<String> paths, long rootModified) {
+        this.root = root;
+        this.paths = paths;
+        this.rootModified = rootModified;
+        scanned = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the registered manifest of the given run root if the
+     * files directly in the root are as they were when it was scanned,
+     * less than RESCAN_MILLIS ago; otherwise scans the root again.
+     */
+    public static ResultsManifest scanIfChanged(File root) throws IOException {
+        ResultsManifest manifest;
+        synchronized (registry) {
+            manifest = registry.get(normalize(root));
+        }
+        if (manifest != null && System.currentTimeMillis() - manifest.scanned < RESCAN_MILLIS &&
+                manifest.rootModified == contentModifiedOnDisk(root)) {
+            return manifest;
+        }
+        return scan(root);
+    }
+
+    /**
+     * Walks the tree below the given run root once and registers the
+     * result in place of any earlier scan of the same root.
+     */
+    public static ResultsManifest scan(File root) throws IOException {
+        if (!root.isDirectory()) {
+            // Leave the error to the loaders
+            return null;
+        }
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.LISTING, root.getPath());
+        final Path start = root.getAbsoluteFile().toPath().normalize();
+        final Map<String, Node> scanned = new HashMap<String, Node>();
+        final Deque<Node> parents = new ArrayDeque<Node>();
+        // Follow links as File.isDirectory() does
+        Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        String name = dir.getFileName().toString();
+                        if (!dir.equals(start) && !name.startsWith("results.")) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        if (!parents.isEmpty()) {
+                            parents.peek().resultDirectories.add(dir.toFile());
+                            parents.peek().names.add(name);
+                        }
+                        Node node = new Node(attrs.lastModifiedTime().toMillis());
+                        scanned.put(dir.toString(), node);
+                        parents.push(node);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String name = file.getFileName().toString();
+                        if (!attrs.isDirectory() &&
+                                (name.startsWith("results.") || name.startsWith("subresults."))) {
+                            Node parent = parents.peek();
+                            parent.files.add(file.toFile());
+                            parent.names.add(name);
+                            parent.contentModified = Math.max(parent.contentModified,
+                                    attrs.lastModifiedTime().toMillis());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                        if (file.equals(start)) {
+                            throw e;
+                        }
+                        // Unreadable entries and link cycles are left to
+                        // the loaders to report if they need them
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                        Collections.sort(parents.pop().resultDirectories);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+        ResultsManifest manifest = register(root, scanned);
+        timer.end(scanned.size());
+        return manifest;
+    }
+
+    /**
+     * Registers the given directories, keyed by normalized absolute
+     * path, as the manifest of root in place of any earlier one.
+     */
+    static ResultsManifest register(File root, Map<String, Node> scanned) {
+        String key = normalize(root);
+        Node rootNode = scanned.get(key);
+        ResultsManifest manifest = new ResultsManifest(root, new ArrayList<String>(scanned.keySet()),
+                (rootNode != null) ? rootNode.contentModified : 0);
+        List<String> evicted = new ArrayList<String>();
+        synchronized (registry) {
+            ResultsManifest old = registry.put(key, manifest);
+            if (old != null) {
+                drop(old);
+            }
+            nodes.putAll(scanned);
+            Iterator<Map.Entry<String, ResultsManifest>> eldest = registry.entrySet().iterator();
+            while (registry.size() > MAX_ROOTS) {
+                Map.Entry<String, ResultsManifest> entry = eldest.next();
+                drop(entry.getValue());
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        // Outside the lock, which ResultsArchive.open() holds its own
+        // lock around
+        for (String path : evicted) {
+            ResultsArchive.close(path);
+        }
+        return manifest;
+    }
+
+    private static void drop(ResultsManifest manifest) {
+        for (String path : manifest.paths) {
+            nodes.remove(path);
+        }
+    }
+
+    private static Node lookup(File directory) {
+        Node node = nodes.isEmpty() ? null : nodes.get(normalize(directory));
+        if (node == null && ResultsArchive.openContaining(directory)) {
+            node = nodes.get(normalize(directory));
+        }
+        return node;
+    }
+
+    // The registered root of an archive, without opening it
+    static Node registered(File root) {
+        String key = normalize(root);
+        synchronized (registry) {
+            return (registry.get(key) != null) ? nodes.get(key) : null;
+        }
+    }
+
+    /**
+     * Returns the contents of the given file if it is inside an
+     * archive, otherwise null.
+     */
+    static byte[] contents(File file) throws IOException {
+        File parent = file.getParentFile();
+        Node node = (parent != null) ? lookup(parent) : null;
+        if (node == null || node.contents == null) {
+            return null;
+        }
+        Object contents = node.contents.get(file.getName());
+        if (contents instanceof Path) {
+            return Files.readAllBytes((Path) contents);
+        }
+        return (contents != null) ? ((ResultsArchive.Slice) contents).read() : null;
+    }
+
+    /**
+     * Returns the sorted results.* subdirectories of the given
+     * directory, or null if no manifest covers it.
+     */
+    static File[] resultDirectories(File directory) {
+        Node node = lookup(directory);
+        if (node == null) {
+            return null;
+        }
+        return children(directory, node.resultDirectories);
+    }
+
+    /**
+     * Lists the plain files whose names start with prefix in the given
+     * directory, from its manifest if it has one. Returns null if the
+     * directory cannot be listed.
+     */
+    static File[] files(File directory, final String prefix) {
+        Node node = lookup(directory);
+        if (node == null) {
+            return directory.listFiles(new FileFilter() {
+                public boolean accept(File path) {
+                    return path.getName().startsWith(prefix) && !path.isDirectory();
+                }
+            });
+        }
+        List<File> files = new ArrayList<File>();
+        for (File file : node.files) {
+            if (file.getName().startsWith(prefix)) {
+                files.add(file);
+            }
+        }
+        return children(directory, files);
+    }
+
+    // Scanned paths are absolute; hand out the caller's own form
+    private static File[] children(File directory, List<File> scanned) {
+        File[] files = new File[scanned.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(directory, scanned.get(i).getName());
+        }
+        return files;
+    }
+
+    /**
+     * Whether the given results.* or subresults.* entry exists.
+     */
+    public static boolean exists(File file) {
+        File parent = file.getParentFile();
+        Node node = (parent != null) ? lookup(parent) : null;
+        String name = file.getName();
+        if (node == null || !(name.startsWith("results.") || name.startsWith("subresults."))) {
+            return file.exists();
+        }
+        return node.names.contains(name);
+    }
+
+    /**
+     * The modification time of the given directory as of its last
+     * scan, as File.lastModified() would return it.
+     */
+    public static long lastModified(File directory) {
+        Node node = lookup(directory);
+        return (node != null) ? node.lastModified : directory.lastModified();
+    }
+
+    /**
+     * The latest modification time of the given directory and its
+     * results.* and subresults.* files as of its last scan. Unlike the
+     * directory's own time, this changes when a file is rewritten in
+     * place.
+     */
+    public static long contentModified(File directory) {
+        Node node = lookup(directory);
+        return (node != null) ? node.contentModified : contentModifiedOnDisk(directory);
+    }
+
+    static long contentModifiedOnDisk(File directory) {
+        long stamp = directory.lastModified();
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File path) {
+                String name = path.getName();
+                return name.startsWith("results.") || name.startsWith("subresults.");
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                if (!file.isDirectory()) {
+                    stamp = Math.max(stamp, file.lastModified());
+                }
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Looks at the given directory on disk again until its run is
+     * scanned again.
+     */
+    public static void invalidate(File directory) {
+        nodes.remove(normalize(directory));
+    }
+
+    public static void invalidateAll() {
+        synchronized (registry) {
+            registry.clear();
+            nodes.clear();
+        }
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public int numDirectories() {
+        return paths.size();
+    }
+
+    static String normalize(File f) {
+        return f.getAbsoluteFile().toPath().normalize().toString();
+    }
+}
@@ -3,13 +3,14 @@ package org.bzewdu.util;
 import org.bzewdu.stats.DataSet;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
 
 public class Subresults {
     Map<String, DataSet> data = new HashMap<String, DataSet>();
+    private String compositeName;
 
     /**
      * Parses all subresults files in the given directory. Equivalent to Subresults(directory, true).
@@ -24,25 +25,26 @@ public class Subresults {
      * one of the sub-benchmarks.
      */
     public Subresults(File directory, boolean parseComposite) throws IOException {
-        File[] files = directory.listFiles(new FileFilter() {
-            public boolean accept(File pathname) {
-                return (pathname.getName().startsWith("subresults."));
-            }
-        });
-         for (File file : files) {
-            Properties props = new Properties();
-            InputStream in = new BufferedInputStream(new FileInputStream(file));
-            props.load(in);
-            in.close();
-            for (Object result : props.keySet()) {
-                String resultName = (String) result;
+        this(directory, parseComposite, 0);
+    }
+
+    /**
+     * Parses all subresults files in the given directory into
+     * sketched DataSets with the given compression, or into DataSets
+     * that keep every sample if it is 0.
+     */
+    public Subresults(File directory, boolean parseComposite, double compression) throws IOException {
+        File[] files = ResultsManifest.files(directory, "subresults.");
+        for (File file : files) {
+            PropertiesReader props = PropertiesReader.read(file);
+            for (String resultName : props.keySet()) {
                 DataSet set = data.get(resultName);
                 if (set == null) {
-                    set = new DataSet();
+                    set = newDataSet(compression);
                     data.put(resultName, set);
                 }
                 try {
-                    set.add(Double.parseDouble((String) props.get(resultName)));
+                    set.add(props.getDouble(resultName));
                 } catch (NumberFormatException e) {
                     // Skip invalid data points
                 }
@@ -50,20 +52,14 @@ public class Subresults {
         }
         if (parseComposite) {
             // Parse the composite score as well out of the results.[benchmarkName] file
-            files = directory.listFiles(new FileFilter() {
-                public boolean accept(File pathname) {
-                    return (pathname.getName().startsWith("results."));
-                }
-            });
+            files = ResultsManifest.files(directory, "results.");
             if (files != null && files.length > 0) {
-                Properties props = new Properties();
-                InputStream in = new BufferedInputStream(new FileInputStream(files[0]));
-                props.load(in);
-                in.close();
+                PropertiesReader props = PropertiesReader.read(files[0]);
                 DataSet set = new DataSet();
                 try {
-                    set.add(Double.parseDouble((String) props.get("score")));
-                    data.put(files[0].getName().substring("results.".length()) + " composite", set);
+                    set.add(props.getDouble("score"));
+                    compositeName = files[0].getName().substring("results.".length()) + " composite";
+                    data.put(compositeName, set);
                 } catch (Exception e) {
                     // Skip any kind of error with this
                 }
@@ -71,6 +67,86 @@ public class Subresults {
         }
     }
 
+    /**
+     * Reads the subresults in the given directory from an open
+     * ResultsIndex if one covers it, otherwise parses the
+     * subresults.* files as the constructor does.
+     */
+    public static Subresults load(File directory, boolean parseComposite) throws IOException {
+        return load(directory, parseComposite, 0);
+    }
+
+    /**
+     * As load(File, boolean), into sketched DataSets unless compression
+     * is 0.
+     */
+    public static Subresults load(File directory, boolean parseComposite, double compression) throws IOException {
+        ExecutionStats.Timer timer = ExecutionStats.start(ExecutionStats.Phase.PARSING, directory.getPath());
+        long samples = 0;
+        try {
+            ResultsIndex.Entry entry = ResultsIndex.lookup(directory);
+            Subresults subres;
+            if (entry == null || (parseComposite && (entry.flags() & ResultsIndex.NO_COMPOSITE) != 0)) {
+                subres = new Subresults(directory, parseComposite, compression);
+            } else {
+                subres = new Subresults(entry.subresultsPayload(), entry.flags(), parseComposite, compression);
+            }
+            for (DataSet set : subres.data.values()) {
+                samples += set.numSamples();
+            }
+            return subres;
+        } finally {
+            // A file that fails to parse still took the time
+            timer.end(samples);
+        }
+    }
+
+    /**
+     * Reads subresults previously stored by writeTo().
+     */
+    Subresults(ByteBuffer in, int flags, boolean parseComposite, double compression) {
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            String name = ResultsIndex.readString(in);
+            data.put(name, ResultsIndex.readColumn(in, newDataSet(compression)));
+        }
+        if ((flags & ResultsIndex.HAS_COMPOSITE) != 0) {
+            String name = ResultsIndex.readString(in);
+            double score = in.getDouble();
+            if (parseComposite) {
+                DataSet set = new DataSet();
+                set.add(score);
+                compositeName = name;
+                data.put(name, set);
+            }
+        }
+    }
+
+    /**
+     * Writes these subresults in the ResultsIndex format and returns
+     * the flags describing them.
+     */
+    int writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(compositeName != null ? data.size() - 1 : data.size());
+        for (Map.Entry<String, DataSet> entry : data.entrySet()) {
+            if (!entry.getKey().equals(compositeName)) {
+                ResultsIndex.writeString(out, entry.getKey());
+                ResultsIndex.writeColumn(out, entry.getValue());
+            }
+        }
+        if (compositeName != null) {
+            ResultsIndex.writeString(out, compositeName);
+            // Read back the raw sample; mean() would drop a negative score
+            out.writeDouble(data.get(compositeName).asReadOnlyBuffer().get(0));
+            return ResultsIndex.HAS_COMPOSITE;
+        }
+        return 0;
+    }
+
+    private static DataSet newDataSet(double compression) {
+        return (compression > 0) ? DataSet.sketched(compression) : new DataSet();
+    }
+
     public Set<String> benchmarkNames() {
         return data.keySet();
     }
@@ -80,14 +156,23 @@ public class Subresults {
     }
 
     public static void main(String[] args) {
-        for (String arg : args) {
+        double compression = 0;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            // -q compression: summarize the samples in bounded memory
+            if (arg.equals("-q") && i + 1 < args.length) {
+                compression = Double.parseDouble(args[++i]);
+                continue;
+            }
             try {
-                Subresults sub = new Subresults(new File(arg));
+                Subresults sub = new Subresults(new File(arg), true, compression);
                 System.out.println(arg);
                 System.out.println("---");
                 for (String benchmarkName : sub.benchmarkNames()) {
                     DataSet data = sub.get(benchmarkName);
-                    System.out.println(benchmarkName + ": mean " + data.mean() + ", stddev " + data.stddev());
+                    System.out.println(benchmarkName + ": mean " + data.mean() + ", stddev " + data.stddev() +
+                            ", p50 " + data.quantile(0.5) + ", p99 " + data.quantile(0.99) +
+                            ", p99.9 " + data.quantile(0.999));
                 }
             } catch (IOException e) {
             }
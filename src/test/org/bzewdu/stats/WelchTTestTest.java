@@ -0,0 +1,116 @@
+package org.bzewdu.stats;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.stat.inference.TTestImpl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Checks that WelchTTest gives the p-value of commons-math's
+// TTestImpl.tTest(double[], double[]) over the valid samples of two
+// DataSets. Run with java, no arguments; a failed check throws
+// AssertionError.
+
+public class WelchTTestTest {
+    // TTestImpl computes 1 - cdf, so its small p-values are only good
+    // to about this much
+    private static final double TOLERANCE = 1e-5;
+
+    private static int checks;
+
+    public static void main(String[] args) throws MathException {
+        // Equal variances, equal and unequal n
+        same(new double[] {1, 2, 3, 4, 5}, new double[] {2, 3, 4, 5, 6});
+        same(new double[] {1, 2, 3, 4, 5}, new double[] {3, 4, 5, 6, 7, 3, 4, 5, 6, 7});
+        same(new double[] {10, 12, 14}, new double[] {11, 13, 15, 11, 13, 15, 11, 13, 15});
+        // Unequal variances and n
+        same(new double[] {99.4, 102.1, 97.3, 100.8}, new double[] {95.0, 110.2, 88.7, 104.4, 99.9, 91.3, 107.5});
+        same(new double[] {1, 1.1}, new double[] {5, 50, 500, 5000, 50000});
+        // The same samples, and samples far apart
+        same(new double[] {3, 4, 5}, new double[] {3, 4, 5});
+        same(new double[] {1, 2, 3, 4}, new double[] {1001, 1002, 1003, 1004});
+
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            double[] a = normal(random, 2 + random.nextInt(60), random.nextDouble() * 100, random.nextDouble() * 10);
+            double[] b = normal(random, 2 + random.nextInt(60), random.nextDouble() * 100, random.nextDouble() * 10);
+            same(a, b);
+        }
+
+        tooFew();
+        failedSamples();
+        System.out.println("WelchTTestTest: " + checks + " checks passed");
+    }
+
+    private static void same(double[] a, double[] b) throws MathException {
+        double expected = new TTestImpl().tTest(a, b);
+        double actual = WelchTTest.pValue(dataSet(a), dataSet(b));
+        check(Math.abs(expected - actual) <= TOLERANCE,
+                "p-value " + actual + ", TTestImpl gives " + expected, a, b);
+        check(Math.abs(WelchTTest.pValue(dataSet(b), dataSet(a)) - actual) <= 1e-12,
+                "p-value depends on the order of the samples", a, b);
+    }
+
+    // TTestImpl refuses samples of fewer than two points; WelchTTest
+    // gives NaN so that one short run does not stop a comparison
+    private static void tooFew() throws MathException {
+        double[][][] cases = {
+                {{}, {1, 2, 3}},
+                {{1}, {1, 2, 3}},
+                {{1, 2, 3}, {7}},
+                {{1}, {2}},
+        };
+        for (double[][] c : cases) {
+            boolean refused = false;
+            try {
+                new TTestImpl().tTest(c[0], c[1]);
+            } catch (IllegalArgumentException e) {
+                refused = true;
+            }
+            check(refused, "TTestImpl accepted fewer than two points", c[0], c[1]);
+            check(Double.isNaN(WelchTTest.pValue(dataSet(c[0]), dataSet(c[1]))),
+                    "expected NaN for fewer than two points", c[0], c[1]);
+        }
+        // Two points, but only one of them valid
+        check(Double.isNaN(WelchTTest.pValue(dataSet(new double[] {5, -1}), dataSet(new double[] {1, 2, 3}))),
+                "expected NaN for fewer than two valid points", new double[] {5, -1}, new double[] {1, 2, 3});
+    }
+
+    // Negative samples are failed iterations: the p-value is that of
+    // TTestImpl over the rest, not over all of them
+    private static void failedSamples() throws MathException {
+        double[] a = {10, 11, -1, 12, 13};
+        double[] b = {14, -1, 15, 16, -1, 17};
+        double[] validA = {10, 11, 12, 13};
+        double[] validB = {14, 15, 16, 17};
+        double expected = new TTestImpl().tTest(validA, validB);
+        double actual = WelchTTest.pValue(dataSet(a), dataSet(b));
+        check(Math.abs(expected - actual) <= TOLERANCE,
+                "p-value " + actual + ", TTestImpl over the valid samples gives " + expected, a, b);
+        check(Math.abs(new TTestImpl().tTest(a, b) - actual) > TOLERANCE,
+                "failed samples made no difference", a, b);
+    }
+
+    private static double[] normal(Random random, int n, double mean, double stddev) {
+        double[] samples = new double[n];
+        for (int i = 0; i < n; i++) {
+            samples[i] = Math.abs(mean + random.nextGaussian() * stddev);
+        }
+        return samples;
+    }
+
+    private static DataSet dataSet(double[] samples) {
+        DataSet data = new DataSet();
+        for (double sample : samples) {
+            data.add(sample);
+        }
+        return data;
+    }
+
+    private static void check(boolean condition, String message, double[] a, double[] b) {
+        checks++;
+        if (!condition) {
+            throw new AssertionError(message + " for " + Arrays.toString(a) + " and " + Arrays.toString(b));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.bzewdu.util;
+
+import org.bzewdu.stats.DataSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+// Checks that PropertiesReader reads every input the way
+// Properties.load(InputStream) does, and parses numbers exactly as
+// Double.parseDouble does. Run with java, no arguments; a failed check
+// throws AssertionError.
+
+public class PropertiesReaderTest {
+    private static int checks;
+
+    public static void main(String[] args) throws IOException {
+        // Separators
+        same("a=1\nb:2\nc 3\nd\t4\ne\f5\n");
+        same("a = 1\nb : 2\nc   3\nd =  \t4\ne:=5\nf=:6\ng  =  = 7\n");
+        same("  leading=1\n\t\tx:y\nkey\nkey2=\nkey3:\n=novalue\n:also\n");
+        // Comments and blank lines
+        same("# comment\n! also a comment\n  # indented\na=1\n\n   \n#a=2\nb=#not a comment\n");
+        // Escapes
+        same("a\\=b=c\\=d\nk\\:e\\ y=v\\ \\ \nt=\\t\\n\\r\\f\\\\\nq=\\q\\z\\\"\n");
+        same("u=\\u0041\\u00e9\\u20ac\n\\u006b\\u0065y=x\n");
+        same("trailing=value\\\\\n");
+        // Continuations
+        same("a=first\\\n    second\\\n\tthird\nb=c\n");
+        same("a=one\\\r\n  two\r\nb=three\rc=four\r\n");
+        same("a=even\\\\\nb=odd\\\\\\\n  continued\n");
+        same("a=x\\\n\n");
+        same("a=ends in backslash\\");
+        same("# comment\\\nnot=continued\n");
+        same("key\\\n  continued=value\n");
+        // Latin-1 bytes
+        same(new byte[] {'a', '=', (byte) 0xe9, (byte) 0xff, '\n', (byte) 0xc4, '=', (byte) 0xa0, 'x'});
+        same("last=no newline");
+        same("");
+
+        // Random inputs made of the characters that matter
+        Random random = new Random(42);
+        String alphabet = "ab=: \t\f\\\r\n#!u0041e9";
+        for (int i = 0; i < 100000; i++) {
+            int length = random.nextInt(40);
+            byte[] input = new byte[length];
+            for (int j = 0; j < length; j++) {
+                input[j] = (random.nextInt(50) == 0) ?
+                        (byte) (0x80 + random.nextInt(0x80)) : (byte) alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            same(input);
+        }
+
+        numbers(random);
+        doubles();
+        System.out.println("PropertiesReaderTest: " + checks + " checks passed");
+    }
+
+    private static void same(String text) throws IOException {
+        same(text.getBytes("ISO-8859-1"));
+    }
+
+    // Properties.load fails on malformed \\u escapes; PropertiesReader
+    // must then fail too
+    private static void same(byte[] input) throws IOException {
+        Properties expected = new Properties();
+        IllegalArgumentException loadError = null;
+        try {
+            expected.load(new ByteArrayInputStream(input));
+        } catch (IllegalArgumentException e) {
+            loadError = e;
+        }
+        PropertiesReader reader;
+        try {
+            reader = new PropertiesReader(input.clone(), input.length);
+        } catch (IllegalArgumentException e) {
+            check(loadError != null, "PropertiesReader failed where Properties did not", input);
+            return;
+        }
+        check(loadError == null, "Properties failed where PropertiesReader did not", input);
+
+        Map<String, String> actual = new HashMap<String, String>();
+        for (String key : reader.keySet()) {
+            actual.put(key, reader.getProperty(key));
+        }
+        Map<String, String> wanted = new HashMap<String, String>();
+        for (String key : expected.stringPropertyNames()) {
+            wanted.put(key, expected.getProperty(key));
+        }
+        check(actual.equals(wanted), "expected " + wanted + ", got " + actual, input);
+    }
+
+    private static void numbers(Random random) {
+        String[] fixed = {
+                "0", "-0", "1", "-1", "0.1", "99.426169", "1e10", "1E-5", "123456789012345",
+                "1234567890123456789", "0.30000000000000004", "4.9e-324", "1.7976931348623157e308",
+                "+5", ".5", "5.", "00012.5000", "NaN", "-Infinity", "0x1p3", "1d", "2f"
+        };
+        for (String s : fixed) {
+            number(s);
+        }
+        for (int i = 0; i < 200000; i++) {
+            String s;
+            switch (i % 4) {
+                case 0:
+                    s = Double.toString(Double.longBitsToDouble(random.nextLong()));
+                    break;
+                case 1:
+                    s = String.format("%." + random.nextInt(10) + "f", random.nextDouble() * 1e6);
+                    break;
+                case 2:
+                    s = Long.toString(random.nextLong() % 1000000000000000000L);
+                    break;
+                default:
+                    s = (random.nextInt(100000) / 1000.0) + "e" + (random.nextInt(40) - 20);
+            }
+            number(s);
+        }
+        for (String bad : new String[] {"", "-", "1e", "1.2.3", "abc", "1 2"}) {
+            boolean failed = false;
+            try {
+                parse(bad);
+            } catch (NumberFormatException e) {
+                failed = true;
+            }
+            check(failed, "parsed malformed number \"" + bad + "\"", null);
+        }
+    }
+
+    private static void number(String s) {
+        double expected = Double.parseDouble(s);
+        double actual = parse(s);
+        check(Double.doubleToRawLongBits(expected) == Double.doubleToRawLongBits(actual) ||
+                (Double.isNaN(expected) && Double.isNaN(actual)),
+                s + " parsed as " + actual + ", expected " + expected, null);
+    }
+
+    private static double parse(String s) {
+        byte[] b = ("x" + s + "x").getBytes();
+        return PropertiesReader.parseDouble(b, 1, b.length - 1);
+    }
+
+    // Runs of spaces separate score lists as one space does, whether or
+    // not the line needed decoding
+    private static void doubles() throws IOException {
+        String[] inputs = {
+                "scores=1.5 2  3.25   4\n",
+                "scores=  1.5 2  3.25   4  \n",
+                "scores=1.5 2 \\\n    3.25   4\n",
+                "scores=\\u0031.5 2  3.25 4\n"
+        };
+        for (String input : inputs) {
+            byte[] bytes = input.getBytes("ISO-8859-1");
+            DataSet data = new DataSet();
+            new PropertiesReader(bytes, bytes.length).getDoubles("scores", data);
+            DoubleBuffer values = data.asReadOnlyBuffer();
+            double[] got = new double[values.remaining()];
+            values.get(got);
+            check(Arrays.equals(got, new double[] {1.5, 2, 3.25, 4}),
+                    "getDoubles read " + Arrays.toString(got), bytes);
+        }
+    }
+
+    private static void check(boolean condition, String message, byte[] input) {
+        checks++;
+        if (!condition) {
+            throw new AssertionError(message + (input != null ? " for input " + show(input) : ""));
+        }
+    }
+
+    private static String show(byte[] input) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (byte b : input) {
+            int c = b & 0xff;
+            if (c >= 0x20 && c < 0x7f && c != '\\' && c != '"') {
+                sb.append((char) c);
+            } else {
+                sb.append(String.format("\\x%02x", c));
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
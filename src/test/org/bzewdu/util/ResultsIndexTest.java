@@ -0,0 +1,121 @@
+package org.bzewdu.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// Checks that a run root whose results index is missing, empty, of
+// another format or cut short is read from its Properties files, and
+// that a good index is used. Run with java, no arguments; a failed
+// check throws AssertionError.
+
+public class ResultsIndexTest {
+    private static final int MAGIC = 0x43534958;
+
+    private static int checks;
+    // Each case gives the index file its own time so that open() maps
+    // it again
+    private static long stamp = 1000000000000L;
+
+    public static void main(String[] args) throws IOException {
+        File root = createRun();
+        File index = new File(root, ResultsIndex.FILE_NAME);
+        try {
+            unusable(root, new byte[0], "an empty index");
+            unusable(root, new byte[] {1, 2, 3}, "an index shorter than its header");
+            unusable(root, header(0x12345678, 2), "an index with the wrong magic");
+            unusable(root, header(MAGIC, 1), "an index of an older version");
+
+            ResultsIndex.write(root);
+            touch(index);
+            check(ResultsIndex.open(root) != null, "a good index was not used");
+            check(ResultsIndex.open(root).numDirectories() == 2, "the index does not hold both directories");
+            readsResults(root, "a good index");
+
+            RandomAccessFile raf = new RandomAccessFile(index, "rw");
+            try {
+                raf.setLength(raf.length() / 2);
+            } finally {
+                raf.close();
+            }
+            touch(index);
+            check(ResultsIndex.open(root) == null, "a truncated index was used");
+            readsResults(root, "a truncated index");
+        } finally {
+            delete(root);
+        }
+        System.out.println("ResultsIndexTest: " + checks + " checks passed");
+    }
+
+    private static void unusable(File root, byte[] contents, String what) throws IOException {
+        File index = new File(root, ResultsIndex.FILE_NAME);
+        FileOutputStream out = new FileOutputStream(index);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+        touch(index);
+        check(ResultsIndex.open(root) == null, what + " was used");
+        readsResults(root, what);
+    }
+
+    private static void readsResults(File root, String what) throws IOException {
+        Results res = Results.load(new File(root, "results.alpha"));
+        check(res.getName().equals("alpha") && res.getMean() == 42.5 && res.getScores().numSamples() == 3,
+                "wrong results read with " + what);
+    }
+
+    private static byte[] header(int magic, int version) {
+        return new byte[] {
+                (byte) (magic >>> 24), (byte) (magic >>> 16), (byte) (magic >>> 8), (byte) magic,
+                0, 0, 0, (byte) version, 0, 0, 0, 0
+        };
+    }
+
+    private static void touch(File file) throws IOException {
+        stamp += 1000;
+        if (!file.setLastModified(stamp)) {
+            throw new IOException("Cannot set the time of " + file);
+        }
+    }
+
+    private static File createRun() throws IOException {
+        File root = File.createTempFile("results-index-test", "");
+        if (!root.delete() || !root.mkdir()) {
+            throw new IOException("Cannot create " + root);
+        }
+        File dir = new File(root, "results.alpha");
+        if (!dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, "results.alpha")));
+        try {
+            out.writeBytes("is_workload=0\nis_higher_better=1\nscore=42.5\nscores=41.5 42.5 43.5\n" +
+                    "mean=42.5\nstdev=1\nvar=1\nattempts=3\nsuccesses=3\nfailures=0\n" +
+                    "subresults_higher=\nsubresults_lower=\n");
+        } finally {
+            out.close();
+        }
+        return root;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void check(boolean condition, String message) {
+        checks++;
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}